@@ -0,0 +1,178 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.services.analytics.Analytics;
+import com.pg.google.api.connector.data.GoogleApiConnection;
+
+/**
+ * Shares the Analytics clients of connections with the same credentials, application name and timeout, so nodes,
+ * dialogs and the profile helpers reuse one client instead of building their own. Clients are reference counted:
+ * every {@link #acquire(GoogleApiConnection, String, int)} has to be followed by a
+ * {@link #release(GoogleApiConnection, String, int)} once the caller does not need the client anymore, e.g. when its
+ * node is reset. Clients nobody holds are kept for {@link #IDLE_MINUTES} minutes, so a dialog opened again or the next
+ * execution of a node finds them. Connections without an owner that would release them, e.g. the ones loaded with a
+ * port object, {@link #borrow(GoogleApiConnection, String, int) borrow} the client instead.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class AnalyticsClients {
+
+    /**
+     * Time an unused client is kept before it is dropped.
+     */
+    static final long IDLE_MINUTES = 10;
+
+    private static final Map<Key, Entry> CLIENTS = new HashMap<Key, Entry>();
+
+    private AnalyticsClients() {
+        // utility class
+    }
+
+    /**
+     * @param connection The credentials of the client
+     * @param applicationName Name of the application as it is shown to the Google API
+     * @param timeOutMillis Connect and read timeout of the requests, 0 for the default of the HTTP client
+     * @return The shared client, paced by the shared rate limiter and counted in the {@link QuotaLedger}
+     */
+    static synchronized Analytics acquire(final GoogleApiConnection connection, final String applicationName,
+            final int timeOutMillis) {
+        removeIdle();
+        Key key = new Key(connection, applicationName, timeOutMillis);
+        Entry entry = CLIENTS.get(key);
+        if (entry == null) {
+            entry = new Entry(create(connection, applicationName, timeOutMillis));
+            CLIENTS.put(key, entry);
+        }
+        entry.m_references++;
+        return entry.m_client;
+    }
+
+    /**
+     * Gets the shared client without holding it. The client keeps working after it has been dropped from the
+     * registry, the caller only does not share it anymore.
+     *
+     * @param connection The credentials of the client
+     * @param applicationName Name of the application as it is shown to the Google API
+     * @param timeOutMillis Connect and read timeout of the requests, 0 for the default of the HTTP client
+     * @return The shared client, paced by the shared rate limiter and counted in the {@link QuotaLedger}
+     */
+    static synchronized Analytics borrow(final GoogleApiConnection connection, final String applicationName,
+            final int timeOutMillis) {
+        removeIdle();
+        Key key = new Key(connection, applicationName, timeOutMillis);
+        Entry entry = CLIENTS.get(key);
+        if (entry == null) {
+            entry = new Entry(create(connection, applicationName, timeOutMillis));
+            CLIENTS.put(key, entry);
+        }
+        if (entry.m_references == 0) {
+            // Kept for the borrower as long as for a client that was just released
+            entry.m_idleSince = System.currentTimeMillis();
+        }
+        return entry.m_client;
+    }
+
+    /**
+     * @param connection The credentials the client was acquired with
+     * @param applicationName The application name the client was acquired with
+     * @param timeOutMillis The timeout the client was acquired with
+     */
+    static synchronized void release(final GoogleApiConnection connection, final String applicationName,
+            final int timeOutMillis) {
+        Entry entry = CLIENTS.get(new Key(connection, applicationName, timeOutMillis));
+        if (entry != null && entry.m_references > 0 && --entry.m_references == 0) {
+            entry.m_idleSince = System.currentTimeMillis();
+        }
+        removeIdle();
+    }
+
+    private static void removeIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = CLIENTS.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.m_references == 0 && now - entry.m_idleSince > TimeUnit.MINUTES.toMillis(IDLE_MINUTES)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Analytics create(final GoogleApiConnection connection, final String applicationName,
+            final int timeOutMillis) {
+        final GoogleCredential credential = connection.getCredential();
+        HttpRequestInitializer initializer = credential;
+        if (timeOutMillis > 0) {
+            initializer = new HttpRequestInitializer() {
+                @Override
+                public void initialize(final HttpRequest request) throws IOException {
+                    if (credential != null) {
+                        credential.initialize(request);
+                    }
+                    request.setConnectTimeout(timeOutMillis);
+                    request.setReadTimeout(timeOutMillis);
+                }
+            };
+        }
+        HttpRequestInitializer paced = GoogleAnalyticsConnection.getSharedRateLimiter(connection).wrap(initializer);
+        return new Analytics.Builder(connection.getHttpTransport(), connection.getJsonFactory(),
+            QuotaLedger.getInstance().wrap(connection.getClientId(), paced)).setApplicationName(applicationName)
+            .build();
+    }
+
+    private static class Key {
+
+        private final GoogleApiConnection m_connection;
+
+        private final String m_applicationName;
+
+        private final int m_timeOutMillis;
+
+        Key(final GoogleApiConnection connection, final String applicationName, final int timeOutMillis) {
+            m_connection = connection;
+            m_applicationName = applicationName;
+            m_timeOutMillis = timeOutMillis;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key)obj;
+            return new EqualsBuilder().append(m_connection, key.m_connection)
+                .append(m_applicationName, key.m_applicationName).append(m_timeOutMillis, key.m_timeOutMillis)
+                .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder().append(m_connection).append(m_applicationName).append(m_timeOutMillis)
+                .toHashCode();
+        }
+    }
+
+    private static class Entry {
+
+        private final Analytics m_client;
+
+        private int m_references = 0;
+
+        private long m_idleSince;
+
+        Entry(final Analytics client) {
+            m_client = client;
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Stops sending requests to a degraded backend. The breaker watches the outcome of the last requests and opens once
+ * the share of backend failures (timeouts, broken connections and 5xx responses) exceeds the configured rate. While
+ * open every request fails immediately. After a cool-down a single probe request is let through (half-open), its
+ * outcome closes the breaker again or keeps it open for another cool-down.
+ *
+ * Breakers are kept per endpoint and profile for the whole JVM, so all nodes querying a profile share them. The
+ * thresholds can be changed with the system properties <code>pg.ganalytics.breaker.failureRate</code> (0-1),
+ * <code>pg.ganalytics.breaker.window</code> (number of requests), <code>pg.ganalytics.breaker.minRequests</code> and
+ * <code>pg.ganalytics.breaker.openSeconds</code>.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public class CircuitBreaker {
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(CircuitBreaker.class);
+
+    private static final double FAILURE_RATE = getDoubleProperty("pg.ganalytics.breaker.failureRate", 0.5);
+
+    private static final int WINDOW = Integer.getInteger("pg.ganalytics.breaker.window", 20);
+
+    private static final int MIN_REQUESTS = Integer.getInteger("pg.ganalytics.breaker.minRequests", 5);
+
+    private static final long OPEN_NANOS =
+            TimeUnit.SECONDS.toNanos(Long.getLong("pg.ganalytics.breaker.openSeconds", 60));
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String m_name;
+
+    private final double m_failureRate;
+
+    private final int m_minRequests;
+
+    private final long m_openNanos;
+
+    // Ring buffer of the last outcomes, true for a failure
+    private final boolean[] m_outcomes;
+
+    private int m_next = 0;
+
+    private int m_recorded = 0;
+
+    private int m_failures = 0;
+
+    private State m_state = State.CLOSED;
+
+    private long m_openedAt;
+
+    private boolean m_probing = false;
+
+    /**
+     * @param name The name used in messages
+     * @param failureRate The share of failed requests (0-1) at which the breaker opens
+     * @param window The number of recent requests the failure rate is computed from
+     * @param minRequests The number of requests needed before the breaker may open
+     * @param openMillis The time the breaker stays open before a probe request is let through
+     */
+    public CircuitBreaker(final String name, final double failureRate, final int window, final int minRequests,
+            final long openMillis) {
+        if (failureRate <= 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Failure rate must be between 0 and 1");
+        }
+        if (window < 1 || minRequests < 1 || minRequests > window) {
+            throw new IllegalArgumentException("Minimum requests must be between 1 and the window size");
+        }
+        m_name = name;
+        m_failureRate = failureRate;
+        m_minRequests = minRequests;
+        m_openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        m_outcomes = new boolean[window];
+    }
+
+    /**
+     * @param profileId The profile that is queried
+     * @return The breaker of the Core Reporting (data) endpoint for the profile
+     */
+    public static CircuitBreaker forData(final String profileId) {
+        return get("data:" + profileId);
+    }
+
+    /**
+     * @return The breaker of the Management API endpoint
+     */
+    public static CircuitBreaker forManagement() {
+        return get("management");
+    }
+
+    private static CircuitBreaker get(final String name) {
+        CircuitBreaker breaker = BREAKERS.get(name);
+        if (breaker == null) {
+            CircuitBreaker created =
+                    new CircuitBreaker(name, FAILURE_RATE, WINDOW, Math.min(MIN_REQUESTS, WINDOW),
+                            TimeUnit.NANOSECONDS.toMillis(OPEN_NANOS));
+            breaker = BREAKERS.putIfAbsent(name, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Must be called before each request, the outcome has to be reported with {@link #recordSuccess()} or
+     * {@link #recordFailure()} afterwards, or the permission released with {@link #releasePermission()}.
+     *
+     * @throws CircuitOpenException If the breaker is open and the request must not be sent
+     */
+    public synchronized void acquirePermission() throws CircuitOpenException {
+        if (m_state == State.OPEN) {
+            long openFor = System.nanoTime() - m_openedAt;
+            if (openFor < m_openNanos) {
+                throw new CircuitOpenException("Requests to " + m_name + " are suspended for another "
+                    + TimeUnit.NANOSECONDS.toSeconds(m_openNanos - openFor) + " s after repeated backend failures");
+            }
+            m_state = State.HALF_OPEN;
+            m_probing = false;
+        }
+        if (m_state == State.HALF_OPEN) {
+            if (m_probing) {
+                throw new CircuitOpenException("Requests to " + m_name
+                    + " are suspended while a probe request checks the backend");
+            }
+            m_probing = true;
+        }
+    }
+
+    /**
+     * Reports a request that reached a working backend, including requests rejected for other reasons than a
+     * backend failure.
+     */
+    public synchronized void recordSuccess() {
+        if (m_state == State.HALF_OPEN) {
+            LOGGER.info("Backend of " + m_name + " recovered, resuming requests");
+            m_state = State.CLOSED;
+            m_probing = false;
+            reset();
+            return;
+        }
+        addOutcome(false);
+    }
+
+    /**
+     * Reports a request that failed because of the backend.
+     */
+    public synchronized void recordFailure() {
+        if (m_state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        addOutcome(true);
+        if (m_state == State.CLOSED && m_recorded >= m_minRequests
+                && m_failures >= m_failureRate * m_recorded) {
+            open();
+        }
+    }
+
+    /**
+     * Reports a request that was aborted by its sender, so nothing is known about the backend. A probe request is let
+     * through again.
+     */
+    public synchronized void releasePermission() {
+        if (m_state == State.HALF_OPEN) {
+            m_probing = false;
+        }
+    }
+
+    /**
+     * Reports the outcome of a failed request. Only a response tells that the backend works, exceptions raised before
+     * the request was answered, e.g. by the quota ledger, the rate limiter or a deadline, only release the permission.
+     *
+     * @param exception The exception of the request
+     */
+    public void record(final IOException exception) {
+        if (isBackendFailure(exception)) {
+            recordFailure();
+        } else if (exception instanceof HttpResponseException) {
+            recordSuccess();
+        } else {
+            releasePermission();
+        }
+    }
+
+    /**
+     * Executes the request if the breaker is closed and records its outcome.
+     *
+     * @param request The request to execute
+     * @return The parsed response
+     * @throws IOException If the breaker is open or the request failed
+     */
+    public <T> T execute(final AbstractGoogleClientRequest<T> request) throws IOException {
+        acquirePermission();
+        try {
+            T result = request.execute();
+            recordSuccess();
+            return result;
+        } catch (IOException e) {
+            record(e);
+            throw e;
+        } catch (RuntimeException e) {
+            // E.g. an unparsable response, a probe has to be let through again instead of blocking the breaker
+            releasePermission();
+            throw e;
+        }
+    }
+
+    /**
+     * @param exception The exception of a failed request
+     * @return true if the request failed because the backend is slow, unreachable or broken
+     */
+    public static boolean isBackendFailure(final IOException exception) {
+        if (exception instanceof HttpResponseException) {
+            return ((HttpResponseException)exception).getStatusCode() >= 500;
+        }
+        // Includes timeouts, resets and refused connections
+        return exception instanceof SocketException || exception instanceof SocketTimeoutException
+            || exception instanceof EOFException;
+    }
+
+    private void addOutcome(final boolean failure) {
+        if (m_recorded == m_outcomes.length) {
+            if (m_outcomes[m_next]) {
+                m_failures--;
+            }
+        } else {
+            m_recorded++;
+        }
+        m_outcomes[m_next] = failure;
+        if (failure) {
+            m_failures++;
+        }
+        m_next = (m_next + 1) % m_outcomes.length;
+    }
+
+    private void open() {
+        LOGGER.warn("Suspending requests to " + m_name + " for " + TimeUnit.NANOSECONDS.toSeconds(m_openNanos)
+            + " s after " + m_failures + " of " + m_recorded + " requests failed");
+        m_state = State.OPEN;
+        m_openedAt = System.nanoTime();
+        m_probing = false;
+        reset();
+    }
+
+    private void reset() {
+        m_next = 0;
+        m_recorded = 0;
+        m_failures = 0;
+    }
+
+    private static double getDoubleProperty(final String key, final double defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid value of " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Thrown instead of sending a request while the breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param message The reason
+         */
+        public CircuitOpenException(final String message) {
+            super(message);
+        }
+    }
+
+}
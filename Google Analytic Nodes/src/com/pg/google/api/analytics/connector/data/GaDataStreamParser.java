@@ -0,0 +1,105 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.services.analytics.model.GaData;
+
+/**
+ * Reads Core Reporting API responses token by token. The header fields are bound into a {@link GaData} object,
+ * while the rows are pushed value by value into a {@link GoogleAnalyticsRowConsumer} without building a model object
+ * or intermediate lists for them.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class GaDataStreamParser {
+
+    private GaDataStreamParser() {
+        // utility class
+    }
+
+    /**
+     * @param factory The JSON factory of the Analytics client
+     * @param content The raw response
+     * @return The response without rows, holding the column headers, profile information and result counts
+     * @throws IOException If the response is not valid JSON
+     */
+    static GaData parseHeader(final JsonFactory factory, final byte[] content) throws IOException {
+        GaData gaData = new GaData();
+        JsonParser parser = factory.createJsonParser(new ByteArrayInputStream(content));
+        try {
+            startObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("columnHeaders".equals(field)) {
+                    List<GaData.ColumnHeaders> headers = new ArrayList<GaData.ColumnHeaders>();
+                    parser.parseArray(headers, GaData.ColumnHeaders.class);
+                    gaData.setColumnHeaders(headers);
+                } else if ("profileInfo".equals(field)) {
+                    gaData.setProfileInfo(parser.parse(GaData.ProfileInfo.class));
+                } else if ("containsSampledData".equals(field)) {
+                    gaData.setContainsSampledData(value == JsonToken.VALUE_TRUE);
+                } else if ("totalResults".equals(field)) {
+                    gaData.setTotalResults(parser.getIntValue());
+                } else {
+                    // rows, query echo, totals and links
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return gaData;
+    }
+
+    /**
+     * Pushes the rows of the response into the consumer.
+     *
+     * @param factory The JSON factory of the Analytics client
+     * @param content The raw response
+     * @param consumer Receives the values of every row
+     * @return The number of rows in the response
+     * @throws IOException If the response is not valid JSON
+     */
+    static int parseRows(final JsonFactory factory, final byte[] content, final GoogleAnalyticsRowConsumer consumer)
+            throws IOException {
+        int rows = 0;
+        JsonParser parser = factory.createJsonParser(new ByteArrayInputStream(content));
+        try {
+            startObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!"rows".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_ARRAY) {
+                    int column = 0;
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        consumer.value(column++, parser.getCurrentToken() == JsonToken.VALUE_NULL ? null
+                            : parser.getText());
+                    }
+                    consumer.endRow();
+                    rows++;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return rows;
+    }
+
+    private static void startObject(final JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Unexpected response, expected a JSON object");
+        }
+    }
+
+}
@@ -1,38 +1,62 @@
 package com.pg.google.api.analytics.connector.data;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
 import java.security.GeneralSecurityException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.ModelContentRO;
 import org.knime.core.node.ModelContentWO;
 import org.knime.core.node.NodeLogger;
 
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
-import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.json.JsonFactory;
 import com.google.api.services.analytics.Analytics;
 import com.google.api.services.analytics.Analytics.Data.Ga.Get;
 import com.google.api.services.analytics.model.Account;
+import com.google.api.services.analytics.model.AccountSummaries;
+import com.google.api.services.analytics.model.AccountSummary;
 import com.google.api.services.analytics.model.Accounts;
 import com.google.api.services.analytics.model.GaData;
-import com.google.api.services.analytics.model.GaData.ProfileInfo;
 import com.google.api.services.analytics.model.Profile;
+import com.google.api.services.analytics.model.ProfileSummary;
 import com.google.api.services.analytics.model.Profiles;
 import com.google.api.services.analytics.model.Webproperties;
+import com.google.api.services.analytics.model.WebPropertySummary;
 import com.google.api.services.analytics.model.Webproperty;
+import com.pg.google.api.connector.data.AbortScope;
 import com.pg.google.api.connector.data.GoogleApiConnection;
 
 
@@ -44,28 +68,102 @@ public class GoogleAnalyticsConnection {
 
     private static final String CFG_APPLICATION_NAME = "applicationName";
 
+    private static final String CFG_TIME_OUT = "timeOut";
+
+    private static final String CFG_QUERY_DEADLINE = "queryDeadline";
+
+    // Application name of the client shared by the account, property and profile lookups
+    static final String SCAN_APPLICATION_NAME = "KNIME-Profiles-Scan";
+
+    /**
+     * Connect and read timeout in minutes used if none or an invalid one is configured.
+     */
+    public static final int DEFAULT_TIME_OUT_MINUTES = 5;
+
     private GoogleApiConnection m_connection;
 
     private String m_profileId;
     
     private String m_timeOut;
+    
+    private int m_timeOutMillis;
+    
+    private long m_queryDeadlineMillis;
 
     private String m_applicationName;
 
+    // Set lazily by connections that were loaded from a model
     private Analytics m_analytics;
     
+    // Loaded connections do not hold a reference, there is nothing to release
+    private final AtomicBoolean m_released = new AtomicBoolean();
+    
     private GaData dataModel;
     
-    private static final int MAX_ATTEMPTS = 5;
+    private volatile RateLimiter m_rateLimiter;
+    
+    private volatile RetryPolicy m_retryPolicy = RetryPolicy.DEFAULT;
+    
+    private static final int PAGE_SIZE = 5000;
+    
+    // Pages requested ahead of the one being consumed when paging sequentially
+    private static final int PREFETCH_PAGES = 2;
+    
+    // Partial responses: the first page carries everything the table spec needs, later pages only rows
+    private static final String FIRST_PAGE_FIELDS = "columnHeaders,containsSampledData,profileInfo,totalResults,rows";
+    
+    private static final String PAGE_FIELDS = "rows";
+    
+    /**
+     * Page size value that lets the connection tune the number of rows per request itself.
+     */
+    public static final int PAGE_SIZE_AUTO = 0;
+    
+    /**
+     * Maximum number of rows the Core Reporting API returns per request.
+     */
+    public static final int MAX_PAGE_SIZE = PageSizeTuner.MAX_PAGE_SIZE;
+    
+    // Maximum number of profiles the Management API returns per request
+    private static final int PROFILE_PAGE_SIZE = 1000;
+    
+    // Profile pages or profiles requested at the same time
+    private static final int PARALLEL_PROFILE_PAGES = 4;
+    
+    // Partial response telling when each profile was last changed
+    private static final String PROFILE_VERSION_FIELDS = "items(id,accountId,webPropertyId,updated),itemsPerPage,totalResults";
+    
+    private static final ThreadFactory PAGE_THREAD_FACTORY = createThreadFactory("GA-Query-Page");
+    
+    /**
+     * @param name The name of the threads, they are numbered
+     * @return A factory of daemon threads, so a pool that is not shut down does not keep the JVM alive
+     */
+    public static ThreadFactory createThreadFactory( final String name ) {
+    	return new ThreadFactory() {
+    		private final AtomicInteger m_count = new AtomicInteger();
+    		
+    		@Override
+    		public Thread newThread(Runnable runnable) {
+    			Thread thread = new Thread(runnable, name + "-" + m_count.incrementAndGet());
+    			thread.setDaemon(true);
+    			return thread;
+    		}
+    	};
+    }
+    
+    /**
+     * @param connection The Google API connection
+     * @return The limiter shared by all Analytics requests in the JVM that use the same OAuth client and user
+     */
+    public static RateLimiter getSharedRateLimiter( final GoogleApiConnection connection ) {
+    	return RateLimiter.getShared(connection.getClientId(), connection.getRefreshToken());
+    }
     
     public static Map<String, String> getAccounts( final GoogleApiConnection connection ) throws IOException {
     	Map<String, String> map = new HashMap<>();
     	
-    	Analytics analytics =
-                new Analytics.Builder(connection.getHttpTransport(), connection.getJsonFactory(),
-                        connection.getCredential()).setApplicationName("KNIME-Profiles-Scan").build();
-        
-    	Accounts accounts = analytics.management().accounts().list().execute();
+    	Accounts accounts = ManagementCache.getShared().getAccounts(connection);
     	if (accounts!=null && accounts.getTotalResults() > 0 )
 	    	for ( Account account : accounts.getItems() ) {
 	    		map.put(account.getName() + " (UA-" + account.getId()+")", account.getId() );
@@ -77,11 +175,7 @@ public class GoogleAnalyticsConnection {
     public static Map<String, String> getWebProperties( final GoogleApiConnection connection, String accountId ) throws IOException {
     	Map<String, String> map = new HashMap<>();
     	
-    	Analytics analytics =
-                new Analytics.Builder(connection.getHttpTransport(), connection.getJsonFactory(),
-                        connection.getCredential()).setApplicationName("KNIME-Profiles-Scan").build();
-        
-    	Webproperties properties = analytics.management().webproperties().list(accountId).execute();
+    	Webproperties properties = ManagementCache.getShared().getWebProperties(connection, accountId);
     	if (properties!=null && properties.getTotalResults() > 0)
 	    	for ( Webproperty property : properties.getItems() ) {
 	    		map.put(property.getName() + " ("+ property.getId() +")", property.getId() );
@@ -94,11 +188,7 @@ public class GoogleAnalyticsConnection {
     public static Map<String, String> getProfiles( final GoogleApiConnection connection, String accountId, String propertyId ) throws IOException {
     	Map<String, String> map = new HashMap<>();
     	
-    	Analytics analytics =
-                new Analytics.Builder(connection.getHttpTransport(), connection.getJsonFactory(),
-                        connection.getCredential()).setApplicationName("KNIME-Profiles-Scan").build();
-        
-    	Profiles profiles = analytics.management().profiles().list(accountId, propertyId).execute();
+    	Profiles profiles = ManagementCache.getShared().getProfiles(connection, accountId, propertyId);
     	if ( profiles != null && profiles.getTotalResults() > 0 )
 	    	for ( Profile profile : profiles.getItems() ) {
 	    		map.put(profile.getName(), profile.getId() );
@@ -107,48 +197,238 @@ public class GoogleAnalyticsConnection {
     	return map;
     }
     
-    public static List<Profile> getAllProfiles(final GoogleApiConnection connection) throws IOException {
-    	Analytics analytics =
-                new Analytics.Builder(connection.getHttpTransport(), connection.getJsonFactory(),
-                        connection.getCredential()).setApplicationName("KNIME-Profiles-Scan").build();
-        
-    	int currentIndex = 1;
-    	com.google.api.services.analytics.Analytics.Management.Profiles.List profileQuery = analytics.management().profiles().list("~all", "~all").setStartIndex(currentIndex);
-    	Profiles profileResults = profileQuery.execute();
+    /**
+     * Lists the web properties of an account in the background, so they are at hand once they are asked for.
+     * 
+     * @param connection The Google API connection
+     * @param accountId The account
+     */
+    public static void prefetchWebProperties( final GoogleApiConnection connection, String accountId ) {
+    	ManagementCache.getShared().prefetchWebProperties(connection, accountId);
+    }
+    
+    /**
+     * Lists the profiles of a web property in the background, so they are at hand once they are asked for.
+     * 
+     * @param connection The Google API connection
+     * @param accountId The account
+     * @param propertyId The web property
+     */
+    public static void prefetchProfiles( final GoogleApiConnection connection, String accountId, String propertyId ) {
+    	ManagementCache.getShared().prefetchProfiles(connection, accountId, propertyId);
+    }
+    
+    /**
+     * Lists the accounts in the background, so they are at hand once they are asked for.
+     * 
+     * @param connection The Google API connection
+     */
+    public static void prefetchAccounts( final GoogleApiConnection connection ) {
+    	ManagementCache.getShared().prefetchAccounts(connection);
+    }
+    
+    /**
+     * Lists all profiles of the user with all of their details. The first page tells the number of profiles, the 
+     * remaining pages are then requested in parallel. Requests hitting a rate limit are retried.
+     * 
+     * @param connection The Google API connection
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The profiles of all accounts and web properties the user has access to
+     * @throws IOException If the profiles could not be listed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<Profile> getAllProfiles(final GoogleApiConnection connection, final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+    	return getAllProfiles(connection, null, exec);
+    }
+    
+    /**
+     * Lists when the profiles of the user were last changed, which is much less to download than all of their 
+     * details.
+     * 
+     * @param connection The Google API connection
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The profiles of all accounts and web properties the user has access to, only their IDs, account ID, 
+     *         web property ID and time of the last change are set
+     * @throws IOException If the profiles could not be listed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<Profile> getAllProfileVersions(final GoogleApiConnection connection, final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+    	return getAllProfiles(connection, PROFILE_VERSION_FIELDS, exec);
+    }
+    
+    private static List<Profile> getAllProfiles(final GoogleApiConnection connection, final String fields, final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+    	final Analytics analytics = AnalyticsClients.acquire(connection, SCAN_APPLICATION_NAME, 0);
+    	final RetryPolicy.Budget budget = RetryPolicy.DEFAULT.newBudget();
+    	ExecutorService executor = null;
+    	try {
+	    	Profiles firstPage = getProfilePage(analytics, 1, fields, budget);
+	    	List<Profile> profiles = new ArrayList<Profile>();
+	    	if ( firstPage == null || firstPage.getItems() == null || firstPage.getItems().isEmpty() ) {
+	    		return profiles;
+	    	}
+	    	profiles.addAll(firstPage.getItems());
+	    	
+	    	// Google may return fewer profiles per page than asked for, the next pages start where the first one ended
+	    	int pageSize = firstPage.getItems().size();
+	    	int totalResults = firstPage.getTotalResults() != null ? firstPage.getTotalResults() : pageSize;
+	    	int pages = (totalResults - 1) / pageSize;
+	    	if ( pages == 0 ) {
+	    		return profiles;
+	    	}
+	    	
+	    	executor = Executors.newFixedThreadPool(Math.min(PARALLEL_PROFILE_PAGES, pages), PAGE_THREAD_FACTORY);
+	    	List<Future<Profiles>> results = new ArrayList<Future<Profiles>>(pages);
+	    	for ( int startIndex = 1 + pageSize; startIndex <= totalResults; startIndex += pageSize ) {
+	    		final int pageIndex = startIndex;
+	    		results.add(executor.submit(new Callable<Profiles>() {
+	    			@Override
+	    			public Profiles call() throws IOException {
+	    				return getProfilePage(analytics, pageIndex, fields, budget);
+	    			}
+	    		}));
+	    	}
+	    	for ( Profiles page : ManagementRequests.awaitAll(results, exec) ) {
+	    		if ( page != null && page.getItems() != null ) {
+	    			profiles.addAll(page.getItems());
+	    		}
+	    	}
+	    	
+	    	return profiles;
+    	} finally {
+    		if ( executor != null ) {
+    			executor.shutdownNow();
+    		}
+    		AnalyticsClients.release(connection, SCAN_APPLICATION_NAME, 0);
+    	}
+    }
+    
+    private static Profiles getProfilePage( final Analytics analytics, final int startIndex, final String fields, RetryPolicy.Budget budget ) throws IOException {
+    	return ManagementRequests.execute("profiles from " + startIndex, new ManagementRequests.Request<Profiles>() {
+    		@Override
+    		public AbstractGoogleClientRequest<Profiles> create() throws IOException {
+    			Analytics.Management.Profiles.List query = analytics.management().profiles().list("~all", "~all")
+    					.setStartIndex(startIndex).setMaxResults(PROFILE_PAGE_SIZE);
+    			if ( fields != null ) {
+    				query.setFields(fields);
+    			}
+    			return query;
+    		}
+    	}, budget);
+    }
+    
+    /**
+     * Gets the details of some profiles in parallel, e.g. of the ones that changed since they were last listed. 
+     * Requests hitting a rate limit are retried.
+     * 
+     * @param connection The Google API connection
+     * @param profiles The profiles, their IDs, account IDs and web property IDs have to be set
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The profiles with all of their details in the same order, <code>null</code> for profiles that do not 
+     * exist anymore
+     * @throws IOException If a profile could not be read
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<Profile> getProfileDetails(final GoogleApiConnection connection, final List<Profile> profiles, final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+    	if ( profiles.isEmpty() ) {
+    		return new ArrayList<Profile>();
+    	}
+    	final Analytics analytics = AnalyticsClients.acquire(connection, SCAN_APPLICATION_NAME, 0);
+    	final RetryPolicy.Budget budget = RetryPolicy.DEFAULT.newBudget();
+    	ExecutorService executor = Executors.newFixedThreadPool(Math.min(PARALLEL_PROFILE_PAGES, profiles.size()), PAGE_THREAD_FACTORY);
+    	try {
+    		List<Future<Profile>> results = new ArrayList<Future<Profile>>(profiles.size());
+    		for ( final Profile profile : profiles ) {
+    			results.add(executor.submit(new Callable<Profile>() {
+    				@Override
+    				public Profile call() throws IOException {
+    					try {
+    						return ManagementRequests.execute("profile " + profile.getId(), new ManagementRequests.Request<Profile>() {
+    							@Override
+    							public AbstractGoogleClientRequest<Profile> create() throws IOException {
+    								return analytics.management().profiles()
+    										.get(profile.getAccountId(), profile.getWebPropertyId(), profile.getId());
+    							}
+    						}, budget);
+    					} catch ( HttpResponseException exc ) {
+    						// Deleted since it was listed
+    						if ( exc.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND ) {
+    							return null;
+    						}
+    						throw exc;
+    					}
+    				}
+    			}));
+    		}
+    		return ManagementRequests.awaitAll(results, exec);
+    	} finally {
+    		executor.shutdownNow();
+    		AnalyticsClients.release(connection, SCAN_APPLICATION_NAME, 0);
+    	}
+    }
+    
+    /**
+     * Lists all profiles of the user from the account summaries, which hold the whole account, web property and 
+     * profile tree in one request per 1000 accounts. Only the IDs, names, types and the website URLs of the web 
+     * properties are set, the other details are <code>null</code>.
+     * 
+     * @param connection The Google API connection
+     * @return The profiles of all accounts and web properties the user has access to
+     * @throws IOException If the account summaries could not be listed
+     */
+    public static List<Profile> getProfileSummaries(final GoogleApiConnection connection) throws IOException {
     	List<Profile> profiles = new ArrayList<Profile>();
-    	
-    	while ( profileResults != null && profileResults.getItems() != null && profileResults.getItems().size() > 0 && currentIndex < profileResults.getTotalResults() ) {
-			
-			for ( Profile profileItem : profileResults.getItems()  ) {
-				profiles.add(profileItem);
-			}
-			
-			currentIndex = currentIndex + profileResults.getItems().size();
-			profileQuery.setStartIndex(currentIndex);
-			profileResults = profileQuery.execute();
-		}
-    	
+    	ManagementCache cache = ManagementCache.getShared();
+    	int startIndex = 1;
+    	while ( true ) {
+    		AccountSummaries summaries = cache.getAccountSummaries(connection, startIndex);
+    		if ( summaries == null || summaries.getItems() == null || summaries.getItems().isEmpty() ) {
+    			break;
+    		}
+    		for ( AccountSummary account : summaries.getItems() ) {
+    			if ( account.getWebProperties() == null ) continue;
+    			for ( WebPropertySummary property : account.getWebProperties() ) {
+    				if ( property.getProfiles() == null ) continue;
+    				for ( ProfileSummary summary : property.getProfiles() ) {
+    					Profile profile = new Profile();
+    					profile.setAccountId(account.getId());
+    					profile.setWebPropertyId(property.getId());
+    					profile.setInternalWebPropertyId(property.getInternalWebPropertyId());
+    					profile.setWebsiteUrl(property.getWebsiteUrl());
+    					profile.setId(summary.getId());
+    					profile.setName(summary.getName());
+    					profile.setType(summary.getType());
+    					profiles.add(profile);
+    				}
+    			}
+    		}
+    		startIndex += summaries.getItems().size();
+    		if ( summaries.getTotalResults() == null || startIndex > summaries.getTotalResults() ) {
+    			break;
+    		}
+    	}
     	return profiles;
     }
     
+    /**
+     * Resolves the name of a profile from the account summaries of the user, which do not count against the 
+     * quota of the Core Reporting API.
+     * 
+     * @param connection The Google API connection
+     * @param profileId ID of the profile
+     * @return The name of the profile mapped to its ID, empty if the user has no access to the profile
+     * @throws IOException If the account summaries could not be listed
+     */
     public static Map<String, String> getProfile( final GoogleApiConnection connection, String profileId ) throws IOException {
     	Map<String, String> map = new HashMap<>();
     	
-    	Analytics analytics =
-                new Analytics.Builder(connection.getHttpTransport(), connection.getJsonFactory(),
-                        connection.getCredential()).setApplicationName("KNIME-Profiles-Scan").build();
-        
-    	SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-    	
-    	// Try to resolve Profile information via Data query:
-    	Get query = analytics.data().ga().get("ga:"+profileId, sdf.format(new Date()), sdf.format(new Date()), "ga:pageviews");
-    	GaData response = query.execute();
-    	if ( response != null && response.getTotalResults() >= 0 ) {
-    		ProfileInfo profileInfo = response.getProfileInfo();
-        	String name = profileInfo.getProfileName();
-        	map.put(name, profileId);	
+    	for ( Profile profile : getProfileSummaries(connection) ) {
+    		if ( profileId.equals(profile.getId()) ) {
+    			map.put(profile.getName(), profileId);
+    			return map;
+    		}
     	}
     	
+    	LOGGER.warn("Profile " + profileId + " was not found among the profiles of the user");
     	return map;
     }
 
@@ -156,43 +436,50 @@ public class GoogleAnalyticsConnection {
      * @param connection The used GoogleApiConnection
      * @param applicationName Name of this application as it is shown to the Google API
      * @param profileId ID of the profile that will be used
+     * @param timeOut Connect and read timeout of every request in minutes
      */
     public GoogleAnalyticsConnection(final GoogleApiConnection connection, final String applicationName,
             final String profileId, String timeOut) {
+    	this(connection, applicationName, profileId, timeOut, 0);
+    }
+
+    /**
+     * @param connection The used GoogleApiConnection
+     * @param applicationName Name of this application as it is shown to the Google API
+     * @param profileId ID of the profile that will be used
+     * @param timeOut Connect and read timeout of every request in minutes
+     * @param queryDeadlineMinutes Time a query may take across all pages and retries in minutes, 0 for no limit
+     */
+    public GoogleAnalyticsConnection(final GoogleApiConnection connection, final String applicationName,
+            final String profileId, String timeOut, int queryDeadlineMinutes) {
         
     	m_connection = connection;
         m_profileId = profileId;
         m_applicationName = applicationName;
         m_timeOut = timeOut;
+        m_timeOutMillis = parseTimeOut(timeOut);
+        m_queryDeadlineMillis = TimeUnit.MINUTES.toMillis(Math.max(0, queryDeadlineMinutes));
         
-        
-        final HttpRequestInitializer requestInit = new HttpRequestInitializer() {
-	         public void initialize(HttpRequest httpRequest) {
-	            try {
-					m_connection.getCredential().initialize(httpRequest);
-				} catch (IOException e) { 
-					e.printStackTrace();
-				}
-	            
-	            if ( m_timeOut == null || StringUtils.isBlank(m_timeOut) ) {
-	            	m_timeOut = "5";
-	            }
-	            
-	            Integer iTimeOut = new Integer(5);
-	            try { 
-	            	iTimeOut = Integer.parseInt(m_timeOut);
-	            } catch ( Exception ex ) {
-	            	ex.printStackTrace();
-	            }
-	            
-	            httpRequest.setConnectTimeout(iTimeOut * 60000);  	// 15 minutes connect timeout
-	            httpRequest.setReadTimeout(iTimeOut * 60000);  	// 15 minutes read timeout
-	         }
-	    };
-        
-        m_analytics =
-                new Analytics.Builder(m_connection.getHttpTransport(), m_connection.getJsonFactory(),
-                        requestInit).setApplicationName(m_applicationName).build();
+        m_analytics = AnalyticsClients.acquire(m_connection, m_applicationName, m_timeOutMillis);
+    }
+    
+    /**
+     * @return The connect and read timeout in milliseconds, resolved once so requests do not parse it again
+     */
+    private static int parseTimeOut( String timeOut ) {
+    	int minutes = DEFAULT_TIME_OUT_MINUTES;
+    	if ( StringUtils.isNotBlank(timeOut) ) {
+    		try { 
+    			minutes = Integer.parseInt(timeOut.trim());
+    		} catch ( NumberFormatException ex ) {
+    			LOGGER.warn("Invalid time-out \"" + timeOut + "\", using " + DEFAULT_TIME_OUT_MINUTES + " minutes");
+    		}
+    		if ( minutes < 1 ) {
+    			LOGGER.warn("Time-out must be at least 1 minute, using " + DEFAULT_TIME_OUT_MINUTES + " minutes");
+    			minutes = DEFAULT_TIME_OUT_MINUTES;
+    		}
+    	}
+    	return (int) Math.min(TimeUnit.MINUTES.toMillis(minutes), Integer.MAX_VALUE);
     }
     
 	public List<List<String>> query ( String startDate, String endDate, String[] metrics, String[] dimensions, String filters ) throws Exception, IOException {
@@ -201,19 +488,109 @@ public class GoogleAnalyticsConnection {
 	
 	
 	public List<List<String>> query ( String startDate, String endDate, String[] metrics, String[] dimensions, String filters, String segment, ExecutionContext context ) throws Exception,IOException {
+		return query(startDate, endDate, metrics, dimensions, filters, segment, PAGE_SIZE, 1, context);
+	}
+	
+	public List<List<String>> query ( String startDate, String endDate, String[] metrics, String[] dimensions, String filters, String segment, int pageSize, int parallelRequests, ExecutionContext context ) throws Exception,IOException {
+		final List<List<String>> queryResults = new ArrayList<List<String>>();
 		
-		List<List<String>> queryResults = new ArrayList<List<String>>();
+		query(startDate, endDate, metrics, dimensions, filters, segment, pageSize, parallelRequests, new GoogleAnalyticsRowCollector() {
+			@Override
+			public boolean start(GaData dataModel) {
+				return true;
+			}
+			
+			@Override
+			protected void consume(List<String> row) {
+				queryResults.add(row);
+			}
+		}, context);
 		
-		// Pagination Variables
-		int maxResults = 5000;
-		int currentIndex = 1;
+		return queryResults;
+	}
+	
+	/**
+	 * Executes a Core Reporting query and pushes every result page into the given consumer as soon as it has been 
+	 * received, so the complete result never has to be held in memory. Pages are kept as raw responses until the 
+	 * consumer's thread streams their rows into the consumer, no model objects are created for the rows.
+	 * 
+	 * Once the first page has returned the total number of results every remaining start-index is known, so with
+	 * <code>parallelRequests</code> greater than 1 the remaining pages are fetched concurrently and are handed back
+	 * in start-index order. Otherwise the next page is already requested while the consumer processes the current one.
+	 * 
+	 * With {@link #PAGE_SIZE_AUTO} the number of rows per request is tuned from the latency and payload of the 
+	 * received pages and reduced after timeouts or backend errors. Parallel paging needs a fixed page size, there the 
+	 * size tuned on the first page is used for all remaining pages.
+	 * 
+	 * An identical query of the same user that is already running in the JVM and has not received its first response 
+	 * yet is not sent again, the consumer is attached to it and receives the same response and rows.
+	 * Pages the same user has received for the same request within the last minutes are taken from the 
+	 * {@link PageCache} instead.
+	 * 
+	 * @param pageSize Rows per request (up to {@link #MAX_PAGE_SIZE}) or {@link #PAGE_SIZE_AUTO}
+	 * @param parallelRequests Maximum number of pages that are requested at the same time (1 = sequential paging)
+	 * @param consumer Receives the first response and all result pages
+	 * @return The number of rows handed to the consumer
+	 */
+	public int query ( final String startDate, final String endDate, final String[] metrics, final String[] dimensions, final String filters, 
+			final String segment, final int pageSize, final int parallelRequests, GoogleAnalyticsRowConsumer consumer, ExecutionContext context ) throws Exception,IOException {
 		
 		if (getProfileId() == null ) {
 			throw new Exception("No Profile selected");
 		}
 		
+		String key = getQueryKey(metrics, dimensions, filters, segment) + "\n" + startDate + "\n" + endDate;
+		
+		return QueryCoalescer.execute(key, consumer, context, new QueryCoalescer.Fetch() {
+			@Override
+			public int run(GoogleAnalyticsRowConsumer flight, ExecutionContext flightContext) throws Exception {
+				return fetch(startDate, endDate, metrics, dimensions, filters, segment, pageSize, parallelRequests, flight, flightContext);
+			}
+		});
+	}
+	
+	/**
+	 * Page size and parallel requests only change how the result is fetched, not the result, so they are not part of 
+	 * the key.
+	 * 
+	 * @return A key identifying the result of the query independent of its date range, it contains the user whose 
+	 *         credentials are used, so users never see results they may not query themselves
+	 */
+	public String getQueryKey ( String[] metrics, String[] dimensions, String filters, String segment ) {
+		return StringUtils.join(new Object[] { m_connection.getClientId(), m_connection.getRefreshToken(), getProfileId(), 
+				normalize(metrics), normalize(dimensions), StringUtils.trimToEmpty(filters), StringUtils.trimToEmpty(segment) }, '\n');
+	}
+	
+	private static String normalize ( String[] names ) {
+		if ( names == null ) {
+			return "";
+		}
+		// The order is kept, it determines the order of the columns
+		String[] trimmed = new String[names.length];
+		for ( int i = 0; i < names.length; i++ ) {
+			trimmed[i] = StringUtils.trimToEmpty(names[i]);
+		}
+		return StringUtils.join(trimmed, ",");
+	}
+	
+	private int fetch ( String startDate, String endDate, String[] metrics, String[] dimensions, String filters, String segment, int pageSize, int parallelRequests, GoogleAnalyticsRowConsumer consumer, ExecutionContext context ) throws Exception,IOException {
+		
+		int rowCount = 0;
+		
+		// Pagination Variables
+		PageSizeTuner tuner = pageSize == PAGE_SIZE_AUTO ? new PageSizeTuner(PAGE_SIZE) : null;
+		int maxResults = tuner != null ? tuner.getPageSize() : Math.min(pageSize, MAX_PAGE_SIZE);
+		int currentIndex = 1;
+		
+		// All pages of this query share the retries and the deadline
+		RetryPolicy.Budget budget = m_retryPolicy.newBudget();
+		QueryDeadline deadline = new QueryDeadline(m_queryDeadlineMillis);
+		
 		String profileId = "ga:"+getProfileId();
 		
+		// Fail before the first request if the quota is known to be spent
+		QuotaLedger ledger = QuotaLedger.getInstance();
+		ledger.checkAdmission(m_connection.getClientId(), getProfileId(), 1);
 		
 		try {
 		
@@ -228,110 +605,461 @@ public class GoogleAnalyticsConnection {
 			LOGGER.info ("Query: " + profileId + " " + sDate + " to " + eDate );
 			
 			// Build Query
-			Get apiQuery = this.m_analytics.data().ga().get(profileId, sDate, eDate, metricList );
-			apiQuery.setDimensions(dimensionList);
-			if ( filterList != null  && !"".equals(filterList) ) apiQuery.setFilters(filterList); // Filter Reference: https://developers.google.com/analytics/devguides/reporting/core/v3/reference#filters
-			if ( segment != null  && !"".equals(segment) ) apiQuery.setSegment(segment);
-			apiQuery.setMaxResults(maxResults);
-			apiQuery.setStartIndex(currentIndex);
+			Get apiQuery = createQuery(profileId, sDate, eDate, metricList, dimensionList, filterList, segment, maxResults, currentIndex, FIRST_PAGE_FIELDS);
 			
 			// Execute Query
-			GaData gaData = qpsQueryProtection(apiQuery);
+			long started = System.currentTimeMillis();
+			byte[] content = getCachedPage(apiQuery);
+			boolean cached = content != null;
+			if ( !cached ) {
+				content = fetchFirstPage(apiQuery, tuner, budget, deadline, context);
+			}
+			GaData gaData = content != null ? GaDataStreamParser.parseHeader(getJsonFactory(), content) : null;
 			setDataModel(gaData);
+			if ( gaData != null && !cached ) {
+				observePage(apiQuery, tuner, content, gaData.getTotalResults(), started);
+			}
+			
+			if ( gaData != null && !consumer.start(gaData) ) {
+				LOGGER.info("Query stopped after first response");
+				return rowCount;
+			}
 			
 			// GUARD: No results
 			if (gaData == null || gaData.getTotalResults() <= 0) {
 				LOGGER.info("Results: 0");
-				return queryResults;
+				return rowCount;
 			}
 			
-			if ( gaData.getContainsSampledData() ) {
+			if ( Boolean.TRUE.equals(gaData.getContainsSampledData()) ) {
 				LOGGER.warn("Contains Sampled Data");
 			}
 			
 			LOGGER.info ("Results: " + gaData.getTotalResults() );
 			
-			// Iterate through resultset (include pagination)
-			while ( gaData.getRows() != null && gaData.getRows().size() > 0 ) {
+			// Only start paging if the remaining pages fit into today's quota:
+			int firstRows = expectedRows(apiQuery, gaData.getTotalResults());
+			int remainingRows = gaData.getTotalResults() - firstRows;
+			if ( tuner != null ) {
+				maxResults = tuner.getPageSize();
+			}
+			if ( remainingRows > 0 && ledger.admit(m_connection.getClientId(), getProfileId(), 
+					pages(remainingRows, maxResults)) != QuotaLedger.Admission.ADMIT ) {
+				// Spend as few requests as possible, refused if even that does not fit
+				ledger.checkAdmission(m_connection.getClientId(), getProfileId(), pages(remainingRows, MAX_PAGE_SIZE));
+				LOGGER.warn("Daily quota of " + profileId + " nearly spent, fetching the remaining pages one by one with " 
+						+ MAX_PAGE_SIZE + " rows each");
+				tuner = null;
+				maxResults = MAX_PAGE_SIZE;
+				parallelRequests = 1;
+			}
+			
+			// Remaining pages are known up front, fetch them concurrently:
+			if ( parallelRequests > 1 && gaData.getTotalResults() > expectedRows(apiQuery, gaData.getTotalResults()) ) {
+				rowCount += GaDataStreamParser.parseRows(getJsonFactory(), content, consumer);
+				return fetchRemainingPages(profileId, sDate, eDate, metricList, dimensionList, filterList, segment, maxResults, 
+						rowCount + 1, gaData.getTotalResults(), parallelRequests, rowCount, consumer, context, budget, deadline);
+			}
+			
+			// Iterate through resultset (include pagination), the next page is fetched while this one is consumed
+			apiQuery.setMaxResults(maxResults);
+			rowCount = fetchPipelined(apiQuery, content, firstRows, gaData.getTotalResults(), tuner, consumer, context, budget, deadline);
+			
+			apiQuery = null;
+			content = null;
+			
+		} catch ( IOException exc ) {
+			// A missing page would silently truncate the result
+			LOGGER.error("Unable to execute query for " + profileId + ": " + exc.toString());
+			throw exc;
+		} finally {
+			// Requests still running after a cancellation, failure or the deadline are of no use anymore
+			deadline.abort();
+		}
+		
+		return rowCount;
+	}
+	
+	/**
+	 * Requests the first page on a page thread, so the calling thread can be released as soon as the query is canceled 
+	 * or its deadline has passed, even while Google is still preparing the response.
+	 */
+	private byte[] fetchFirstPage ( final Get apiQuery, final PageSizeTuner tuner, final RetryPolicy.Budget budget, 
+			final QueryDeadline deadline, ExecutionContext context ) throws IOException, CanceledExecutionException {
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor(PAGE_THREAD_FACTORY);
+		try {
+			return awaitPage(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return fetchAndCache(apiQuery, tuner, budget, deadline);
+				}
+			}), context, deadline);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @param fields The parts of the response to return, see the <code>fields</code> parameter of the Core Reporting API
+	 */
+	private Get createQuery ( String profileId, String startDate, String endDate, String metricList, String dimensionList, 
+			String filterList, String segment, int maxResults, int startIndex, String fields ) throws IOException {
+		
+		Get apiQuery = getAnalytics().data().ga().get(profileId, startDate, endDate, metricList );
+		apiQuery.setDimensions(dimensionList);
+		if ( filterList != null  && !"".equals(filterList) ) apiQuery.setFilters(filterList); // Filter Reference: https://developers.google.com/analytics/devguides/reporting/core/v3/reference#filters
+		if ( segment != null  && !"".equals(segment) ) apiQuery.setSegment(segment);
+		apiQuery.setMaxResults(maxResults);
+		apiQuery.setStartIndex(startIndex);
+		apiQuery.setFields(fields);
+		
+		// Google only compresses the response if the user agent announces gzip support
+		HttpHeaders headers = apiQuery.getRequestHeaders();
+		headers.setAcceptEncoding("gzip");
+		headers.setUserAgent(headers.getUserAgent() != null ? headers.getUserAgent() + " (gzip)" : "(gzip)");
+		return apiQuery;
+	}
+	
+	/**
+	 * Requests all pages after the first one over a bounded pool. At most <code>parallelRequests</code> pages are in 
+	 * flight (plus the same number of completed pages waiting to be collected), pages are pushed in start-index order.
+	 * 
+	 * @return The number of rows handed to the consumer including the already consumed <code>rowCount</code>
+	 */
+	private int fetchRemainingPages ( final String profileId, final String startDate, final String endDate, final String metricList, 
+			final String dimensionList, final String filterList, final String segment, final int maxResults, int firstIndex,
+			final int totalResults, int parallelRequests, int rowCount, GoogleAnalyticsRowConsumer consumer, ExecutionContext context, 
+			final RetryPolicy.Budget budget, final QueryDeadline deadline ) throws IOException, CanceledExecutionException {
+		
+		int pages = (totalResults - firstIndex) / maxResults + 1;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelRequests, pages), PAGE_THREAD_FACTORY);
+		Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		int nextIndex = firstIndex;
+		
+		try {
+			while ( nextIndex <= totalResults || !pending.isEmpty() ) {
 				
-				if ( context !=null ) {
-					context.checkCanceled();
+				// Keep the window filled:
+				while ( nextIndex <= totalResults && pending.size() < parallelRequests * 2 ) {
+					final int startIndex = nextIndex;
+					pending.add(executor.submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws Exception {
+							LOGGER.debug("Getting Results " + startIndex + " to (max)" + (startIndex + maxResults) );
+							Get pageQuery = createQuery(profileId, startDate, endDate, metricList, dimensionList, 
+									filterList, segment, maxResults, startIndex, PAGE_FIELDS);
+							byte[] content = getCachedPage(pageQuery);
+							return content != null ? content : fetchAndCache(pageQuery, null, budget, deadline);
+						}
+					}));
+					nextIndex += maxResults;
 				}
 				
+				byte[] page = awaitPage(pending.poll(), context, deadline);
+				int rows = page != null ? GaDataStreamParser.parseRows(getJsonFactory(), page, consumer) : 0;
+				if ( rows == 0 ) {
+					// Result set shrank while paging, nothing left to collect
+					break;
+				}
+				rowCount += rows;
+				
 				if ( context != null ) {
-					context.setMessage("Getting Results " + currentIndex + " to " + (currentIndex + maxResults) + " of " + gaData.getTotalResults());
-					context.setProgress((double) currentIndex / (double) gaData.getTotalResults() );
+					context.setMessage("Getting Results " + rowCount + " of " + totalResults);
+					context.setProgress((double) rowCount / (double) totalResults );
+				}
+			}
+		} finally {
+			for ( Future<byte[]> future : pending ) {
+				future.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+		return rowCount;
+	}
+	
+	/**
+	 * Pages through the result one request after the other. A producer thread requests the next pages into a bounded 
+	 * queue of {@link #PREFETCH_PAGES} while the calling thread hands the received pages to the consumer, so the 
+	 * conversion of a page overlaps with the HTTP request of the next one.
+	 * 
+	 * @param apiQuery The query of the first page, it is reused for the following pages with its current page size
+	 * @param firstPage The raw first page, already received
+	 * @param firstPageRows The number of rows requested with the first page
+	 * @return The number of rows handed to the consumer
+	 */
+	private int fetchPipelined ( final Get apiQuery, final byte[] firstPage, final int firstPageRows, final int totalResults, final PageSizeTuner tuner, 
+			GoogleAnalyticsRowConsumer consumer, ExecutionContext context, final RetryPolicy.Budget budget, 
+			final QueryDeadline deadline ) throws IOException, CanceledExecutionException {
+		
+		final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(PREFETCH_PAGES);
+		final AtomicBoolean stopped = new AtomicBoolean();
+		ExecutorService executor = Executors.newSingleThreadExecutor(PAGE_THREAD_FACTORY);
+		
+		apiQuery.setFields(PAGE_FIELDS);
+		Future<Void> producer = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				byte[] page = firstPage;
+				int pageRows = firstPageRows;
+				int currentIndex = 1;
+				while ( page != null ) {
+					// Retries swallow interrupts, so the consumer also signals through the flag
+					while ( !queue.offer(page, 500, TimeUnit.MILLISECONDS) ) {
+						if ( stopped.get() ) {
+							return null;
+						}
+					}
+					
+					// Next page (continues after the rows of this request, the page size may have changed):
+					currentIndex = currentIndex + pageRows;
+					if ( currentIndex > totalResults || stopped.get() ) {
+						break;
+					}
+					if ( tuner != null ) {
+						apiQuery.setMaxResults(tuner.getPageSize());
+					}
+					apiQuery.setStartIndex(currentIndex);
+					LOGGER.debug("Getting Results " + currentIndex + " to (max)" + (currentIndex + apiQuery.getMaxResults()) );
+					page = fetchPage(apiQuery, tuner, totalResults, budget, deadline);
+					pageRows = expectedRows(apiQuery, totalResults);
+				}
+				return null;
+			}
+		});
+		
+		int rowCount = 0;
+		try {
+			while ( true ) {
+				if ( context != null ) {
+					context.checkCanceled();
+				}
+				deadline.check();
+				
+				byte[] page;
+				try {
+					page = queue.poll(500, TimeUnit.MILLISECONDS);
+				} catch ( InterruptedException exc ) {
+					Thread.currentThread().interrupt();
+					throw new CanceledExecutionException("Interrupted while waiting for results");
+				}
+				if ( page == null ) {
+					if ( !producer.isDone() ) {
+						continue;
+					}
+					// All pages are queued once the producer is done
+					page = queue.poll();
+					if ( page == null ) {
+						awaitPage(producer, context, deadline);
+						break;
+					}
 				}
-				LOGGER.debug("Getting Results " + currentIndex + " to (max)" + (currentIndex + maxResults) );
 				
-				for (List<String> rowValues : gaData.getRows()) {
-					queryResults.add(rowValues);
+				if ( context != null ) {
+					context.setMessage("Getting Results " + (rowCount + 1) + " of " + totalResults);
+					context.setProgress((double) rowCount / (double) totalResults );
 				}
 				
-				// Next page:
-				currentIndex = currentIndex + maxResults; 
-				apiQuery.setStartIndex(currentIndex);
-				gaData = qpsQueryProtection(apiQuery);
+				int rows = GaDataStreamParser.parseRows(getJsonFactory(), page, consumer);
+				if ( rows == 0 ) {
+					// Result set shrank while paging, nothing left to collect
+					break;
+				}
+				rowCount += rows;
+			}
+		} finally {
+			stopped.set(true);
+			producer.cancel(true);
+			executor.shutdownNow();
+		}
+		return rowCount;
+	}
+	
+	private <T> T awaitPage ( Future<T> future, ExecutionContext context, QueryDeadline deadline ) throws IOException, CanceledExecutionException {
+		while ( true ) {
+			if ( context != null ) {
+				context.checkCanceled();
+			}
+			deadline.check();
+			try {
+				return future.get(Math.min(500, deadline.getRemainingMillis()), TimeUnit.MILLISECONDS);
+			} catch ( TimeoutException exc ) {
+				// still in flight, check for cancellation again
+			} catch ( InterruptedException exc ) {
+				Thread.currentThread().interrupt();
+				throw new CanceledExecutionException("Interrupted while waiting for results");
+			} catch ( ExecutionException exc ) {
+				if ( exc.getCause() instanceof IOException ) {
+					throw (IOException)exc.getCause();
+				}
+				throw new IOException(exc.getCause());
 			}
-			
-			apiQuery = null;
-			gaData = null;
-			
-		} catch ( IOException exc ) {
-			LOGGER.error("Unable to execute query for " + profileId + ": " + exc.toString());
 		}
-		
-		return queryResults;
+	}
+	
+	private byte[] fetchPage ( Get apiQuery, PageSizeTuner tuner, int totalResults, RetryPolicy.Budget budget, QueryDeadline deadline ) throws IOException {
+		byte[] content = getCachedPage(apiQuery);
+		if ( content != null ) {
+			// Not observed, the tuner keeps the page size of the last run so its next pages are cached as well
+			return content;
+		}
+		long started = System.currentTimeMillis();
+		content = fetchAndCache(apiQuery, tuner, budget, deadline);
+		observePage(apiQuery, tuner, content, totalResults, started);
+		return content;
+	}
+	
+	/**
+	 * @return The page received for the same user and request within the time to live of the {@link PageCache} or 
+	 *         <code>null</code>
+	 */
+	private byte[] getCachedPage ( Get apiQuery ) {
+		byte[] content = PageCache.getShared().get(getPageKey(apiQuery));
+		if ( content != null ) {
+			LOGGER.debug("Using cached page at index " + apiQuery.getStartIndex());
+		}
+		return content;
+	}
+	
+	private byte[] fetchAndCache ( Get apiQuery, PageSizeTuner tuner, RetryPolicy.Budget budget, QueryDeadline deadline ) throws IOException {
+		byte[] content = qpsQueryProtection(apiQuery, tuner, budget, deadline);
+		// Keyed after the request, retries may have reduced the page size
+		PageCache.getShared().put(getPageKey(apiQuery), content);
+		return content;
+	}
+	
+	/**
+	 * @return The user and the request URL, which contains all query parameters including start-index and page size
+	 */
+	private String getPageKey ( Get apiQuery ) {
+		return m_connection.getClientId() + "\n" + m_connection.getRefreshToken() + "\n" + apiQuery.buildHttpRequestUrl().build();
+	}
+	
+	private void observePage ( Get apiQuery, PageSizeTuner tuner, byte[] content, int totalResults, long started ) {
+		if ( tuner != null ) {
+			tuner.observe(expectedRows(apiQuery, totalResults), content.length, System.currentTimeMillis() - started);
+		}
+	}
+	
+	/**
+	 * @return The number of rows the API returns for the current start-index and page size of <code>apiQuery</code>
+	 */
+	private static int expectedRows ( Get apiQuery, int totalResults ) {
+		return Math.max(0, Math.min(apiQuery.getMaxResults(), totalResults - apiQuery.getStartIndex() + 1));
+	}
+	
+	private static int pages ( int rows, int pageSize ) {
+		return (rows + pageSize - 1) / pageSize;
+	}
+	
+	private JsonFactory getJsonFactory () {
+		return getAnalytics().getJsonFactory();
 	}
        
-	private GaData qpsQueryProtection ( Get apiQuery ) throws IOException {
-		GaData gaData = null;
-		int attempts = 1;
-		IOException exception = null;
+	/**
+	 * Sends the request, retrying it on its own as the {@link RetryPolicy} allows.
+	 * 
+	 * @param tuner If given the page size of <code>apiQuery</code> is reduced before retrying after a timeout or 
+	 * backend error, <code>null</code> keeps the page size fixed
+	 * @param budget The retries left for the whole query
+	 * @param deadline The time left for the whole query, retries are only attempted within it
+	 * @return The raw response, never <code>null</code>
+	 * @throws IOException If the request failed and may not be retried any more
+	 */
+	private byte[] qpsQueryProtection ( Get apiQuery, PageSizeTuner tuner, RetryPolicy.Budget budget, QueryDeadline deadline ) throws IOException {
+		RetryPolicy policy = m_retryPolicy;
+		CircuitBreaker breaker = CircuitBreaker.forData(getProfileId());
 		
-		do {
-			try {
-				
-				gaData = apiQuery.execute();
-				exception = null;
+		for ( int attempt = 1; ; attempt++ ) {
+			deadline.check();
+			RateLimiter rateLimiter = m_rateLimiter;
+			if ( rateLimiter != null ) {
+				rateLimiter.acquire();
+			}
 			
+			// Fails fast while the backend of this profile is known to be broken
+			breaker.acquirePermission();
+			try {
+				byte[] content = download(apiQuery, deadline);
+				breaker.recordSuccess();
+				return content;
 			} catch ( IOException ioexc ) {
-				exception = ioexc;
+				try {
+					// Cut off by the deadline or aborted, the backend is not to blame
+					deadline.check();
+				} catch ( InterruptedIOException exc ) {
+					breaker.releasePermission();
+					throw exc;
+				}
+				breaker.record(ioexc);
+				RetryPolicy.Action action = policy.classify(ioexc);
+				if ( ioexc instanceof GoogleJsonResponseException ) {
+					LOGGER.debug(((GoogleJsonResponseException)ioexc).getDetails());
+				}
 				
 				// Guard statement:
-				if ( !(ioexc instanceof SocketTimeoutException  || ioexc instanceof GoogleJsonResponseException ) ) {
-					return gaData;
+				if ( action == RetryPolicy.Action.FAIL ) {
+					throw ioexc;
 				}
-				
-				if ( ioexc instanceof GoogleJsonResponseException) {
-					GoogleJsonResponseException e = (GoogleJsonResponseException)ioexc;
-					String reason = e.getDetails().getErrors().get(0).getReason();
-					LOGGER.debug(reason);
-					LOGGER.debug(e.getDetails().getMessage());
-					
-					// Likely security exception so no reason to continue trying:
-					if ( !("rateLimitExceeded".equals(reason) || "dailyLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason) || "backendError".equals(reason) ))
-					{
-						throw e;
-					}
-					
-				} else {
-					LOGGER.error(ioexc.getMessage());
+				if ( attempt >= policy.getMaxAttempts() || !budget.tryAcquire() ) {
+					LOGGER.error("Unable to recover from query error: " + ioexc.getMessage());
+					throw ioexc;
 				}
 				
-				try { Thread.sleep( attempts * 1000); } catch ( Exception sleepException ){};
+				if ( action == RetryPolicy.Action.RETRY_SMALLER_PAGE ) {
+					shrinkPage(apiQuery, tuner);
+				}
 				
+				long delay = policy.getDelayMillis(attempt);
+				LOGGER.debug("Retrying after " + ioexc.getMessage() + " in " + delay + " ms (attempt " + attempt + ")");
+				deadline.sleep(delay);
+			} catch ( RuntimeException exc ) {
+				breaker.releasePermission();
+				throw exc;
 			}
-			
-		} while ( gaData == null && attempts++ <= MAX_ATTEMPTS && exception != null );
-		
-		// Was unable to recover :(
-		if (exception != null ) {
-			LOGGER.error("Unable to recover from query error: " + exception.getMessage());
-			throw exception;
 		}
-		
-		return gaData;
+	}
+	
+	/**
+	 * Sends the request within the {@link AbortScope} of the query, with its timeouts reduced to the time left.
+	 * 
+	 * @return The raw (decompressed) response of the query, parsing is left to the consumer's thread
+	 * @throws GoogleJsonResponseException If the API answered with an error, as <code>executeUnparsed()</code> 
+	 * throws it, so the {@link RetryPolicy} sees its reason
+	 */
+	private static byte[] download ( Get apiQuery, QueryDeadline deadline ) throws IOException {
+		HttpRequest request = apiQuery.buildHttpRequest();
+		deadline.limitTimeouts(request);
+		request.setThrowExceptionOnExecuteError(false);
+		AbortScope previous = deadline.getScope().enter();
+		HttpResponse response;
+		try {
+			response = request.execute();
+		} finally {
+			AbortScope.restore(previous);
+		}
+		if ( !response.isSuccessStatusCode() ) {
+			try {
+				throw GoogleJsonResponseException.from(apiQuery.getAbstractGoogleClient().getJsonFactory(), response);
+			} finally {
+				response.disconnect();
+			}
+		}
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			response.download(content);
+			return content.toByteArray();
+		} finally {
+			response.disconnect();
+		}
+	}
+	
+	private void shrinkPage ( Get apiQuery, PageSizeTuner tuner ) {
+		if ( tuner != null ) {
+			tuner.shrink();
+			apiQuery.setMaxResults(tuner.getPageSize());
+			LOGGER.debug("Reduced page size to " + tuner.getPageSize());
+		}
 	}
 
     /**
@@ -343,9 +1071,13 @@ public class GoogleAnalyticsConnection {
             m_connection = new GoogleApiConnection(model);
             m_profileId = model.getString(CFG_PROFILE_ID);
             m_applicationName = model.getString(CFG_APPLICATION_NAME);
-            m_analytics =
-                    new Analytics.Builder(m_connection.getHttpTransport(), m_connection.getJsonFactory(),
-                            m_connection.getCredential()).setApplicationName(m_applicationName).build();
+            // Added later, older connections used the default time-out and no deadline
+            m_timeOut = model.getString(CFG_TIME_OUT, "");
+            m_timeOutMillis = parseTimeOut(m_timeOut);
+            m_queryDeadlineMillis = model.getLong(CFG_QUERY_DEADLINE, 0);
+            // Specs and port objects are loaded and copied without an owner that would release them, so they only
+            // borrow the client of the connection they were saved from once they need it
+            m_released.set(true);
         } catch (GeneralSecurityException | IOException e) {
             throw new InvalidSettingsException(e);
         }
@@ -354,10 +1086,25 @@ public class GoogleAnalyticsConnection {
     /**
      * @return the analytics The Google Analytics object
      */
-    public Analytics getAnalytics() {
+    public synchronized Analytics getAnalytics() {
+        if (m_analytics == null) {
+            m_analytics = AnalyticsClients.borrow(m_connection, m_applicationName, m_timeOutMillis);
+        }
         return m_analytics;
     }
 
+    /**
+     * Gives the Analytics client back to the registry shared by all connections, so it can be dropped once no
+     * connection with the same credentials uses it anymore. Called by the owner of the connection, e.g. when its node
+     * is reset. The connection stays usable afterwards, calling this again has no effect. Connections loaded from a
+     * model do not hold a reference, releasing them has no effect either.
+     */
+    public void release() {
+        if (m_released.compareAndSet(false, true)) {
+            AnalyticsClients.release(m_connection, m_applicationName, m_timeOutMillis);
+        }
+    }
+
     /**
      * @return the profileId
      */
@@ -369,8 +1116,20 @@ public class GoogleAnalyticsConnection {
     	return m_timeOut;
     }
     
+    /**
+     * @return The time a query may take across all pages and retries in milliseconds, 0 if it is not limited
+     */
+    public long getQueryDeadlineMillis() {
+    	return m_queryDeadlineMillis;
+    }
+    
     
     
+    /**
+     * @return The first response of the last query this connection fetched itself (not attached to an identical 
+     *         running query), only holding the column headers, sampling flag, profile info, 
+     *         total results and rows
+     */
     public GaData getDataModel() {
 		return dataModel;
 	}
@@ -378,6 +1137,22 @@ public class GoogleAnalyticsConnection {
 	public void setDataModel(GaData dataModel) {
 		this.dataModel = dataModel;
 	}
+	
+	/**
+	 * @param retryPolicy Decides which failed requests are retried and how long to wait before
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		m_retryPolicy = retryPolicy;
+	}
+	
+	/**
+	 * @param rateLimiter Additional limiter every data request of this connection has to pass, e.g. a lower rate 
+	 * configured for a node, or <code>null</code> to only use the {@link #getSharedRateLimiter(GoogleApiConnection) 
+	 * shared limiter}
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		m_rateLimiter = rateLimiter;
+	}
 
 	/**
      * @param model The model to save the current configuration in
@@ -386,6 +1161,8 @@ public class GoogleAnalyticsConnection {
         m_connection.save(model);
         model.addString(CFG_PROFILE_ID, m_profileId);
         model.addString(CFG_APPLICATION_NAME, m_applicationName);
+        model.addString(CFG_TIME_OUT, m_timeOut);
+        model.addLong(CFG_QUERY_DEADLINE, m_queryDeadlineMillis);
     }
 
     /**
@@ -0,0 +1,38 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumer for callers that need the raw values of a row as a list.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public abstract class GoogleAnalyticsRowCollector implements GoogleAnalyticsRowConsumer {
+
+    private List<String> m_row = new ArrayList<String>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void value(final int column, final String value) {
+        m_row.add(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endRow() {
+        List<String> row = m_row;
+        m_row = new ArrayList<String>(row.size());
+        consume(row);
+    }
+
+    /**
+     * @param row The raw values of a complete row, owned by the collector from now on
+     */
+    protected abstract void consume(List<String> row);
+
+}
@@ -0,0 +1,35 @@
+package com.pg.google.api.analytics.connector.data;
+
+import com.google.api.services.analytics.model.GaData;
+
+/**
+ * Receives the results of a query value by value while the result pages are parsed, so neither the rows nor the
+ * pages ever have to be held in memory as model objects.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public interface GoogleAnalyticsRowConsumer {
+
+    /**
+     * Called once with the first response before any row is pushed, even if the query matched no rows.
+     * 
+     * @param dataModel The first response without rows, containing the column headers and profile information
+     * @return true to receive the rows, false to stop the query without fetching any further page
+     */
+    boolean start(GaData dataModel);
+
+    /**
+     * Called for every value of the current row, in the order of the column headers. Rows arrive in start-index
+     * order.
+     * 
+     * @param column The index of the column in the column headers
+     * @param value The raw value as returned by the API
+     */
+    void value(int column, String value);
+
+    /**
+     * Called after the last value of a row.
+     */
+    void endRow();
+
+}
@@ -0,0 +1,342 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.analytics.Analytics;
+import com.google.api.services.analytics.model.AccountSummaries;
+import com.google.api.services.analytics.model.Accounts;
+import com.google.api.services.analytics.model.Profiles;
+import com.google.api.services.analytics.model.Webproperties;
+import com.pg.google.api.connector.data.GoogleApiConnection;
+
+/**
+ * Keeps the accounts, web properties and profiles a user has access to, so browsing the management hierarchy in a
+ * dialog only waits for Google the first time. Responses are used for the time to live after they have been
+ * received. Older ones are revalidated with their ETag, an unchanged response is then used again without downloading
+ * it. Only one request per response is sent at a time, callers asking for a response that is being loaded wait for it.
+ *
+ * Responses can be prefetched in the background, e.g. the web properties of an account as soon as it is selected. The
+ * time to live can be changed with the system property <code>pg.ganalytics.managementCache.ttlMinutes</code>. The
+ * responses used least recently are dropped once more than <code>pg.ganalytics.managementCache.maxEntries</code> are
+ * kept.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class ManagementCache {
+
+    /**
+     * Time a response is used without revalidating it.
+     */
+    static final long TTL_MINUTES = Long.getLong("pg.ganalytics.managementCache.ttlMinutes", 15);
+
+    /**
+     * Maximum number of responses kept for all users together.
+     */
+    static final int MAX_ENTRIES = Integer.getInteger("pg.ganalytics.managementCache.maxEntries", 1000);
+
+    /**
+     * Maximum number of account summaries requested per page.
+     */
+    static final int SUMMARIES_PAGE_SIZE = 1000;
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(ManagementCache.class);
+
+    // Prefetches waiting for a thread, older ones are dropped when the user moves on quickly
+    private static final int MAX_QUEUED_PREFETCHES = 8;
+
+    private static final ManagementCache SHARED = new ManagementCache(TimeUnit.MINUTES.toMillis(TTL_MINUTES));
+
+    private final long m_ttlMillis;
+
+    // Access ordered, guarded by itself
+    private final Map<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ManagementCache.Entry> eldest) {
+            // Callers holding the entry still get its response, later callers load it again
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final ExecutorService m_prefetcher = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES), new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "GA-Management-Prefetch-" + m_count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    /**
+     * Creates the request of a response.
+     *
+     * @param <T> The type of the response
+     */
+    interface Loader<T> {
+
+        /**
+         * @param analytics The client to create the request with
+         * @return The request, it is executed by the cache
+         * @throws IOException If the request could not be created
+         */
+        AbstractGoogleClientRequest<T> create(Analytics analytics) throws IOException;
+    }
+
+    /**
+     * @param ttlMillis The time a response is used without revalidating it
+     */
+    ManagementCache(final long ttlMillis) {
+        m_ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return The cache shared by all connections in the JVM
+     */
+    static ManagementCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param connection The credentials of the user
+     * @return The accounts of the user
+     * @throws IOException If the accounts could not be listed
+     */
+    Accounts getAccounts(final GoogleApiConnection connection) throws IOException {
+        return get(connection, "accounts", accountsLoader());
+    }
+
+    /**
+     * @param connection The credentials of the user
+     * @param accountId The account
+     * @return The web properties of the account
+     * @throws IOException If the web properties could not be listed
+     */
+    Webproperties getWebProperties(final GoogleApiConnection connection, final String accountId)
+            throws IOException {
+        return get(connection, "webproperties/" + accountId, webPropertiesLoader(accountId));
+    }
+
+    /**
+     * @param connection The credentials of the user
+     * @param accountId The account
+     * @param propertyId The web property
+     * @return The profiles of the web property
+     * @throws IOException If the profiles could not be listed
+     */
+    Profiles getProfiles(final GoogleApiConnection connection, final String accountId, final String propertyId)
+            throws IOException {
+        return get(connection, "profiles/" + accountId + "/" + propertyId, profilesLoader(accountId, propertyId));
+    }
+
+    /**
+     * @param connection The credentials of the user
+     * @param startIndex The index of the first account, starting with 1
+     * @return A page of the accounts of the user, each with the names of its web properties and profiles
+     * @throws IOException If the account summaries could not be listed
+     */
+    AccountSummaries getAccountSummaries(final GoogleApiConnection connection, final int startIndex)
+            throws IOException {
+        return get(connection, "accountSummaries/" + startIndex, new Loader<AccountSummaries>() {
+            @Override
+            public AbstractGoogleClientRequest<AccountSummaries> create(final Analytics analytics)
+                    throws IOException {
+                return analytics.management().accountSummaries().list().setStartIndex(startIndex)
+                    .setMaxResults(SUMMARIES_PAGE_SIZE);
+            }
+        });
+    }
+
+    /**
+     * Loads the accounts in the background unless they are cached.
+     *
+     * @param connection The credentials of the user
+     */
+    void prefetchAccounts(final GoogleApiConnection connection) {
+        prefetch(connection, "accounts", accountsLoader());
+    }
+
+    /**
+     * Loads the web properties of an account in the background unless they are cached.
+     *
+     * @param connection The credentials of the user
+     * @param accountId The account
+     */
+    void prefetchWebProperties(final GoogleApiConnection connection, final String accountId) {
+        prefetch(connection, "webproperties/" + accountId, webPropertiesLoader(accountId));
+    }
+
+    /**
+     * Loads the profiles of a web property in the background unless they are cached.
+     *
+     * @param connection The credentials of the user
+     * @param accountId The account
+     * @param propertyId The web property
+     */
+    void prefetchProfiles(final GoogleApiConnection connection, final String accountId, final String propertyId) {
+        prefetch(connection, "profiles/" + accountId + "/" + propertyId, profilesLoader(accountId, propertyId));
+    }
+
+    /**
+     * @param connection The credentials of the user
+     * @param path Identifies the response among the ones of the user
+     * @param loader Creates the request if the response is not cached or has to be revalidated
+     * @return The cached or received response, it must not be modified
+     * @throws IOException If the response is not cached and could not be received
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(final GoogleApiConnection connection, final String path, final Loader<T> loader) throws IOException {
+        Entry entry = getEntry(connection, path);
+        String etag;
+        synchronized (entry) {
+            while (entry.m_loading) {
+                try {
+                    entry.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + path);
+                }
+            }
+            if (isFresh(entry)) {
+                return (T)entry.m_response;
+            }
+            entry.m_loading = true;
+            etag = entry.m_response != null ? entry.m_etag : null;
+        }
+        Object response = null;
+        String receivedEtag = null;
+        boolean notModified = false;
+        try {
+            Analytics analytics = AnalyticsClients.acquire(connection, GoogleAnalyticsConnection.SCAN_APPLICATION_NAME, 0);
+            try {
+                AbstractGoogleClientRequest<T> request = loader.create(analytics);
+                if (etag != null) {
+                    request.getRequestHeaders().setIfNoneMatch(etag);
+                }
+                try {
+                    response = CircuitBreaker.forManagement().execute(request);
+                    HttpHeaders headers = request.getLastResponseHeaders();
+                    receivedEtag = headers != null ? headers.getETag() : null;
+                } catch (HttpResponseException e) {
+                    if (etag == null || e.getStatusCode() != HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+                        throw e;
+                    }
+                    notModified = true;
+                }
+            } finally {
+                AnalyticsClients.release(connection, GoogleAnalyticsConnection.SCAN_APPLICATION_NAME, 0);
+            }
+        } finally {
+            synchronized (entry) {
+                if (notModified) {
+                    entry.m_received = System.currentTimeMillis();
+                } else if (response != null) {
+                    entry.m_response = response;
+                    entry.m_etag = receivedEtag;
+                    entry.m_received = System.currentTimeMillis();
+                }
+                entry.m_loading = false;
+                entry.notifyAll();
+            }
+        }
+        if (notModified) {
+            LOGGER.debug("Management response " + path + " has not changed");
+        }
+        synchronized (entry) {
+            return (T)entry.m_response;
+        }
+    }
+
+    private void prefetch(final GoogleApiConnection connection, final String path, final Loader<?> loader) {
+        Entry entry = getEntry(connection, path);
+        synchronized (entry) {
+            if (entry.m_loading || isFresh(entry)) {
+                return;
+            }
+        }
+        m_prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    get(connection, path, loader);
+                } catch (IOException e) {
+                    // Loaded again when it is asked for, which reports the error
+                    LOGGER.debug("Unable to prefetch " + path + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private Entry getEntry(final GoogleApiConnection connection, final String path) {
+        String key = connection.getClientId() + "\n" + connection.getRefreshToken() + "\n" + path;
+        synchronized (m_entries) {
+            Entry entry = m_entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                m_entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private boolean isFresh(final Entry entry) {
+        return entry.m_response != null && System.currentTimeMillis() - entry.m_received <= m_ttlMillis;
+    }
+
+    private static Loader<Accounts> accountsLoader() {
+        return new Loader<Accounts>() {
+            @Override
+            public AbstractGoogleClientRequest<Accounts> create(final Analytics analytics) throws IOException {
+                return analytics.management().accounts().list();
+            }
+        };
+    }
+
+    private static Loader<Webproperties> webPropertiesLoader(final String accountId) {
+        return new Loader<Webproperties>() {
+            @Override
+            public AbstractGoogleClientRequest<Webproperties> create(final Analytics analytics) throws IOException {
+                return analytics.management().webproperties().list(accountId);
+            }
+        };
+    }
+
+    private static Loader<Profiles> profilesLoader(final String accountId, final String propertyId) {
+        return new Loader<Profiles>() {
+            @Override
+            public AbstractGoogleClientRequest<Profiles> create(final Analytics analytics) throws IOException {
+                return analytics.management().profiles().list(accountId, propertyId);
+            }
+        };
+    }
+
+    private static class Entry {
+
+        private Object m_response;
+
+        private String m_etag;
+
+        private long m_received;
+
+        private boolean m_loading = false;
+    }
+
+}
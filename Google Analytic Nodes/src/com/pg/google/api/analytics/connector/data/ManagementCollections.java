@@ -0,0 +1,310 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.services.analytics.Analytics;
+import com.google.api.services.analytics.model.CustomDimension;
+import com.google.api.services.analytics.model.CustomDimensions;
+import com.google.api.services.analytics.model.CustomMetric;
+import com.google.api.services.analytics.model.CustomMetrics;
+import com.google.api.services.analytics.model.Goal;
+import com.google.api.services.analytics.model.Goals;
+import com.google.api.services.analytics.model.ProfileFilterLink;
+import com.google.api.services.analytics.model.ProfileFilterLinks;
+import com.pg.google.api.connector.data.GoogleApiConnection;
+
+/**
+ * Lists the goals, filter links, custom dimensions and custom metrics of many profiles at once. Goals and filter links
+ * are listed for all profiles of an account in one request per 1000 items, custom dimensions and metrics once per web
+ * property. The accounts and web properties are listed in parallel by the shared client of the user, so all requests
+ * are paced by the user's shared rate limiter.
+ *
+ * Accounts and web properties the user may not read the collection of, e.g. filter links, which need the edit
+ * permission, are skipped and reported to the caller. Requests hitting a rate limit are retried as the
+ * {@link RetryPolicy} allows.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public final class ManagementCollections {
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(ManagementCollections.class);
+
+    // Maximum number of items the Management API returns per request
+    private static final int PAGE_SIZE = 1000;
+
+    // Accounts or web properties listed at the same time
+    private static final int PARALLEL_LISTS = 4;
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "GA-Management-List-" + m_count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /**
+     * Pages through one collection.
+     */
+    private abstract static class Lister<R, T> {
+
+        private final String m_name;
+
+        Lister(final String name) {
+            m_name = name;
+        }
+
+        abstract AbstractGoogleClientRequest<R> create(Analytics analytics, int startIndex) throws IOException;
+
+        abstract List<T> getItems(R response);
+
+        abstract Integer getTotalResults(R response);
+    }
+
+    private ManagementCollections() {
+        // utility class
+    }
+
+    /**
+     * @param connection The Google API connection
+     * @param accountIds The accounts
+     * @param denied Receives the accounts whose goals the user may not read
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The goals of all profiles of the accounts
+     * @throws IOException If the goals could not be listed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<Goal> getGoals(final GoogleApiConnection connection, final Collection<String> accountIds,
+            final List<String> denied, final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+        List<Lister<Goals, Goal>> listers = new ArrayList<Lister<Goals, Goal>>();
+        for (final String accountId : accountIds) {
+            listers.add(new Lister<Goals, Goal>("goals of account " + accountId) {
+                @Override
+                AbstractGoogleClientRequest<Goals> create(final Analytics analytics, final int startIndex)
+                        throws IOException {
+                    return analytics.management().goals().list(accountId, "~all", "~all")
+                        .setStartIndex(startIndex).setMaxResults(PAGE_SIZE);
+                }
+
+                @Override
+                List<Goal> getItems(final Goals response) {
+                    return response.getItems();
+                }
+
+                @Override
+                Integer getTotalResults(final Goals response) {
+                    return response.getTotalResults();
+                }
+            });
+        }
+        return listAll(connection, listers, denied, exec);
+    }
+
+    /**
+     * @param connection The Google API connection
+     * @param accountIds The accounts
+     * @param denied Receives the accounts whose filter links the user may not read
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The filter links of all profiles of the accounts
+     * @throws IOException If the filter links could not be listed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<ProfileFilterLink> getProfileFilterLinks(final GoogleApiConnection connection,
+            final Collection<String> accountIds, final List<String> denied, final ExecutionMonitor exec)
+            throws IOException, CanceledExecutionException {
+        List<Lister<ProfileFilterLinks, ProfileFilterLink>> listers =
+                new ArrayList<Lister<ProfileFilterLinks, ProfileFilterLink>>();
+        for (final String accountId : accountIds) {
+            listers.add(new Lister<ProfileFilterLinks, ProfileFilterLink>("filter links of account " + accountId) {
+                @Override
+                AbstractGoogleClientRequest<ProfileFilterLinks> create(final Analytics analytics,
+                        final int startIndex) throws IOException {
+                    return analytics.management().profileFilterLinks().list(accountId, "~all", "~all")
+                        .setStartIndex(startIndex).setMaxResults(PAGE_SIZE);
+                }
+
+                @Override
+                List<ProfileFilterLink> getItems(final ProfileFilterLinks response) {
+                    return response.getItems();
+                }
+
+                @Override
+                Integer getTotalResults(final ProfileFilterLinks response) {
+                    return response.getTotalResults();
+                }
+            });
+        }
+        return listAll(connection, listers, denied, exec);
+    }
+
+    /**
+     * @param connection The Google API connection
+     * @param propertyAccounts The web properties mapped to their account
+     * @param denied Receives the web properties whose custom dimensions the user may not read
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The custom dimensions of the web properties
+     * @throws IOException If the custom dimensions could not be listed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<CustomDimension> getCustomDimensions(final GoogleApiConnection connection,
+            final Map<String, String> propertyAccounts, final List<String> denied, final ExecutionMonitor exec)
+            throws IOException, CanceledExecutionException {
+        List<Lister<CustomDimensions, CustomDimension>> listers =
+                new ArrayList<Lister<CustomDimensions, CustomDimension>>();
+        for (final Map.Entry<String, String> property : propertyAccounts.entrySet()) {
+            listers.add(new Lister<CustomDimensions, CustomDimension>("custom dimensions of web property "
+                + property.getKey()) {
+                @Override
+                AbstractGoogleClientRequest<CustomDimensions> create(final Analytics analytics, final int startIndex)
+                        throws IOException {
+                    return analytics.management().customDimensions().list(property.getValue(), property.getKey())
+                        .setStartIndex(startIndex).setMaxResults(PAGE_SIZE);
+                }
+
+                @Override
+                List<CustomDimension> getItems(final CustomDimensions response) {
+                    return response.getItems();
+                }
+
+                @Override
+                Integer getTotalResults(final CustomDimensions response) {
+                    return response.getTotalResults();
+                }
+            });
+        }
+        return listAll(connection, listers, denied, exec);
+    }
+
+    /**
+     * @param connection The Google API connection
+     * @param propertyAccounts The web properties mapped to their account
+     * @param denied Receives the web properties whose custom metrics the user may not read
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The custom metrics of the web properties
+     * @throws IOException If the custom metrics could not be listed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    public static List<CustomMetric> getCustomMetrics(final GoogleApiConnection connection,
+            final Map<String, String> propertyAccounts, final List<String> denied, final ExecutionMonitor exec)
+            throws IOException, CanceledExecutionException {
+        List<Lister<CustomMetrics, CustomMetric>> listers = new ArrayList<Lister<CustomMetrics, CustomMetric>>();
+        for (final Map.Entry<String, String> property : propertyAccounts.entrySet()) {
+            listers.add(new Lister<CustomMetrics, CustomMetric>("custom metrics of web property "
+                + property.getKey()) {
+                @Override
+                AbstractGoogleClientRequest<CustomMetrics> create(final Analytics analytics, final int startIndex)
+                        throws IOException {
+                    return analytics.management().customMetrics().list(property.getValue(), property.getKey())
+                        .setStartIndex(startIndex).setMaxResults(PAGE_SIZE);
+                }
+
+                @Override
+                List<CustomMetric> getItems(final CustomMetrics response) {
+                    return response.getItems();
+                }
+
+                @Override
+                Integer getTotalResults(final CustomMetrics response) {
+                    return response.getTotalResults();
+                }
+            });
+        }
+        return listAll(connection, listers, denied, exec);
+    }
+
+    private static <R, T> List<T> listAll(final GoogleApiConnection connection, final List<Lister<R, T>> listers,
+            final List<String> denied, final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+        List<T> items = new ArrayList<T>();
+        if (listers.isEmpty()) {
+            return items;
+        }
+        final RetryPolicy.Budget budget = RetryPolicy.DEFAULT.newBudget();
+        final Analytics analytics =
+                AnalyticsClients.acquire(connection, GoogleAnalyticsConnection.SCAN_APPLICATION_NAME, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(PARALLEL_LISTS, listers.size()),
+            THREAD_FACTORY);
+        try {
+            List<Future<List<T>>> results = new ArrayList<Future<List<T>>>(listers.size());
+            for (final Lister<R, T> lister : listers) {
+                results.add(executor.submit(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() throws IOException {
+                        return list(analytics, lister, budget);
+                    }
+                }));
+            }
+            List<List<T>> lists = ManagementRequests.awaitAll(results, exec);
+            for (int i = 0; i < lists.size(); i++) {
+                List<T> listed = lists.get(i);
+                if (listed == null) {
+                    denied.add(listers.get(i).m_name);
+                } else {
+                    items.addAll(listed);
+                }
+            }
+            return items;
+        } finally {
+            executor.shutdownNow();
+            AnalyticsClients.release(connection, GoogleAnalyticsConnection.SCAN_APPLICATION_NAME, 0);
+        }
+    }
+
+    /**
+     * @return The items of all pages or <code>null</code> if the user may not read the collection
+     */
+    private static <R, T> List<T> list(final Analytics analytics, final Lister<R, T> lister,
+            final RetryPolicy.Budget budget) throws IOException {
+        List<T> items = new ArrayList<T>();
+        int startIndex = 1;
+        while (true) {
+            R response;
+            try {
+                final int index = startIndex;
+                response = ManagementRequests.execute(lister.m_name, new ManagementRequests.Request<R>() {
+                    @Override
+                    public AbstractGoogleClientRequest<R> create() throws IOException {
+                        return lister.create(analytics, index);
+                    }
+                }, budget);
+            } catch (GoogleJsonResponseException e) {
+                // Rate limits are 403 as well, they are retried and only fail once the retries are used up
+                if (e.getDetails() != null
+                        && "insufficientPermissions".equals(RetryPolicy.getReason(e.getDetails()))) {
+                    LOGGER.warn("Not allowed to list the " + lister.m_name);
+                    return null;
+                }
+                throw e;
+            }
+            List<T> page = response != null ? lister.getItems(response) : null;
+            if (page == null || page.isEmpty()) {
+                return items;
+            }
+            items.addAll(page);
+            startIndex += page.size();
+            Integer totalResults = lister.getTotalResults(response);
+            if (totalResults == null || startIndex > totalResults) {
+                return items;
+            }
+        }
+    }
+
+}
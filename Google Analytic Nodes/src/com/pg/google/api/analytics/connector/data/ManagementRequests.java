@@ -0,0 +1,131 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+
+/**
+ * Sends Management API requests through the breaker of the Management API and retries them as the
+ * {@link RetryPolicy} allows, e.g. after a rate limit error, which requests sent in parallel easily run into. Also
+ * collects the results of requests sent in parallel while checking for cancellation.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class ManagementRequests {
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(ManagementRequests.class);
+
+    // Time between two checks for cancellation while waiting for a result
+    private static final long POLL_MILLIS = 500;
+
+    /**
+     * Creates the request to send, once per attempt.
+     *
+     * @param <T> The type of the response
+     */
+    interface Request<T> {
+
+        /**
+         * @return The request
+         * @throws IOException If the request could not be created
+         */
+        AbstractGoogleClientRequest<T> create() throws IOException;
+    }
+
+    private ManagementRequests() {
+        // utility class
+    }
+
+    /**
+     * @param name Tells what is requested in messages
+     * @param request Creates the request
+     * @param budget The retries left for all requests of the caller together
+     * @return The response
+     * @throws IOException If the request failed and may not be retried any more
+     */
+    static <T> T execute(final String name, final Request<T> request, final RetryPolicy.Budget budget)
+            throws IOException {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        for (int attempt = 1;; attempt++) {
+            try {
+                return CircuitBreaker.forManagement().execute(request.create());
+            } catch (IOException e) {
+                if (policy.classify(e) == RetryPolicy.Action.FAIL || attempt >= policy.getMaxAttempts()
+                        || !budget.tryAcquire()) {
+                    throw e;
+                }
+                long delay = policy.getDelayMillis(attempt);
+                LOGGER.debug("Retrying to list the " + name + " after " + e.getMessage() + " in " + delay
+                    + " ms (attempt " + attempt + ")");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while listing the " + name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the results in their order. Once one failed or the execution was canceled the others are canceled.
+     *
+     * @param results The results of the requests
+     * @param exec The monitor to check for cancellation or <code>null</code>
+     * @return The results in the same order
+     * @throws IOException If a request failed
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    static <T> List<T> awaitAll(final List<Future<T>> results, final ExecutionMonitor exec) throws IOException,
+            CanceledExecutionException {
+        List<T> values = new ArrayList<T>(results.size());
+        boolean done = false;
+        try {
+            for (Future<T> result : results) {
+                values.add(await(result, exec));
+            }
+            done = true;
+            return values;
+        } finally {
+            if (!done) {
+                for (Future<T> result : results) {
+                    result.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static <T> T await(final Future<T> result, final ExecutionMonitor exec) throws IOException,
+            CanceledExecutionException {
+        while (true) {
+            if (exec != null) {
+                exec.checkCanceled();
+            }
+            try {
+                return result.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // still in flight, check for cancellation again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CanceledExecutionException("Interrupted while waiting for the Management API");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps recently received result pages in memory, so a query that is executed again with the same settings, e.g.
+ * while the nodes after it are built, does not have to wait for Google. Pages are kept as raw (decompressed) responses
+ * and weighed by their size. The least recently used pages are removed once the cache is full, pages older than the
+ * time to live are not used anymore.
+ *
+ * The size and time to live of the shared cache can be changed with the system properties
+ * <code>pg.ganalytics.pageCache.maxMegabytes</code> and <code>pg.ganalytics.pageCache.ttlMinutes</code>.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class PageCache {
+
+    private static final PageCache SHARED = new PageCache(
+        Long.getLong("pg.ganalytics.pageCache.maxMegabytes", 64) * 1024 * 1024,
+        TimeUnit.MINUTES.toMillis(Long.getLong("pg.ganalytics.pageCache.ttlMinutes", 15)));
+
+    private final long m_maxBytes;
+
+    private final long m_ttlMillis;
+
+    // In access order, the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> m_pages = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long m_bytes = 0;
+
+    /**
+     * @param maxBytes The total size of the pages the cache may hold
+     * @param ttlMillis The time a page is used after it has been received
+     */
+    PageCache(final long maxBytes, final long ttlMillis) {
+        m_maxBytes = maxBytes;
+        m_ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return The cache shared by all connections in the JVM
+     */
+    static PageCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param key The key of the request, including the user and all query parameters
+     * @return The page or <code>null</code> if it is not cached or expired
+     */
+    synchronized byte[] get(final String key) {
+        Entry entry = m_pages.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.m_received > m_ttlMillis) {
+            remove(key);
+            return null;
+        }
+        return entry.m_content;
+    }
+
+    /**
+     * @param key The key of the request, including the user and all query parameters
+     * @param content The raw response, it must not be modified afterwards
+     */
+    synchronized void put(final String key, final byte[] content) {
+        long weight = weigh(key, content);
+        if (weight > m_maxBytes) {
+            return;
+        }
+        remove(key);
+        m_pages.put(key, new Entry(content, System.currentTimeMillis()));
+        m_bytes += weight;
+        Iterator<Map.Entry<String, Entry>> iterator = m_pages.entrySet().iterator();
+        while (m_bytes > m_maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            m_bytes -= weigh(eldest.getKey(), eldest.getValue().m_content);
+            iterator.remove();
+        }
+    }
+
+    private void remove(final String key) {
+        Entry entry = m_pages.remove(key);
+        if (entry != null) {
+            m_bytes -= weigh(key, entry.m_content);
+        }
+    }
+
+    private static long weigh(final String key, final byte[] content) {
+        return content.length + 2L * key.length();
+    }
+
+    private static class Entry {
+
+        private final byte[] m_content;
+
+        private final long m_received;
+
+        Entry(final byte[] content, final long received) {
+            m_content = content;
+            m_received = received;
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.pg.google.api.analytics.connector.data;
+
+/**
+ * Adapts the number of rows requested per page to the observed response time and payload of the previous pages.
+ * 
+ * Small and fast result rows let the page grow up to the API maximum of 10,000 rows, slow or wide rows let it shrink
+ * so a single page stays well below the read timeout. After a timeout or backend error the page size is halved.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+class PageSizeTuner {
+
+    static final int MIN_PAGE_SIZE = 500;
+
+    /** Upper limit of rows per request enforced by the Core Reporting API. */
+    static final int MAX_PAGE_SIZE = 10000;
+
+    private static final long TARGET_PAGE_MILLIS = 10000;
+
+    private static final long TARGET_PAGE_BYTES = 4 * 1024 * 1024;
+
+    private int m_pageSize;
+
+    /**
+     * @param initialPageSize The page size used for the first request
+     */
+    PageSizeTuner(final int initialPageSize) {
+        m_pageSize = clamp(initialPageSize);
+    }
+
+    /**
+     * @return The number of rows that should be requested with the next page
+     */
+    synchronized int getPageSize() {
+        return m_pageSize;
+    }
+
+    /**
+     * Adjusts the page size based on a successfully received page.
+     * 
+     * @param rows The number of rows of the received page
+     * @param bytes The size of the received page
+     * @param millis The time it took to receive the page
+     */
+    synchronized void observe(final int rows, final long bytes, final long millis) {
+        // Only full pages tell anything about the cost per row
+        if (rows < m_pageSize) {
+            return;
+        }
+        double rowsByTime = TARGET_PAGE_MILLIS * rows / (double)Math.max(1, millis);
+        double rowsByBytes = TARGET_PAGE_BYTES * rows / (double)Math.max(1, bytes);
+        // Grow at most by doubling and only move half way to dampen outliers
+        int target = (int)Math.min(Math.min(rowsByTime, rowsByBytes), m_pageSize * 2.0);
+        m_pageSize = clamp((m_pageSize + target) / 2);
+    }
+
+    /**
+     * Halves the page size after a request timed out or failed on the backend.
+     */
+    synchronized void shrink() {
+        m_pageSize = clamp(m_pageSize / 2);
+    }
+
+    private static int clamp(final int pageSize) {
+        return Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, pageSize));
+    }
+
+}
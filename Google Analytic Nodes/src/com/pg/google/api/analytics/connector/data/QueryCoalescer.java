@@ -0,0 +1,290 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.services.analytics.model.GaData;
+
+/**
+ * Runs identical queries that are issued at the same time only once. The first caller of a query fetches it, callers
+ * of the same query arriving before its first response has been received attach to that fetch and are handed the same
+ * response and rows, value by value, as they are streamed to the first caller. Once rows are streamed a new caller can
+ * not receive the complete result any more and runs its own fetch.
+ *
+ * Queries are identified by a key that has to include everything that changes the result, including the user whose
+ * credentials are used.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class QueryCoalescer {
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(QueryCoalescer.class);
+
+    private static final ConcurrentMap<String, Flight> FLIGHTS = new ConcurrentHashMap<String, Flight>();
+
+    private QueryCoalescer() {
+        // utility class
+    }
+
+    /**
+     * Fetches a query and streams its result into a consumer.
+     */
+    interface Fetch {
+
+        /**
+         * @param consumer Receives the response and rows
+         * @param context The context of the fetching caller
+         * @return The number of rows handed to the consumer
+         * @throws Exception If the query failed
+         */
+        int run(GoogleAnalyticsRowConsumer consumer, ExecutionContext context) throws Exception;
+    }
+
+    /**
+     * Runs the fetch or attaches to a running fetch of the same query.
+     *
+     * @param key The normalized query
+     * @param consumer Receives the response and rows
+     * @param context The context progress is reported to and cancellation is checked with, or <code>null</code>
+     * @param fetch Fetches the query if no identical one is running
+     * @return The number of rows handed to the consumer
+     * @throws Exception If the query failed
+     */
+    static int execute(final String key, final GoogleAnalyticsRowConsumer consumer, final ExecutionContext context,
+            final Fetch fetch) throws Exception {
+        while (true) {
+            Subscriber subscriber = new Subscriber(consumer);
+            Flight flight = new Flight(key, subscriber);
+            Flight running = FLIGHTS.putIfAbsent(key, flight);
+            if (running == null) {
+                return flight.lead(subscriber, context, fetch);
+            }
+            if (running.attach(subscriber)) {
+                LOGGER.info("Attaching to a running identical query");
+                Integer rows = running.follow(subscriber, context);
+                if (rows != null) {
+                    return rows;
+                }
+                LOGGER.info("Identical query was canceled before its first response, fetching again");
+            } else {
+                // The running query already streams rows, it is removed from the map at the same time
+                FLIGHTS.remove(key, running);
+            }
+        }
+    }
+
+    /**
+     * A running fetch and the callers waiting for its result. Forwards the response and rows to all of them.
+     */
+    private static class Flight implements GoogleAnalyticsRowConsumer {
+
+        private final String m_key;
+
+        private final List<Subscriber> m_subscribers = new ArrayList<Subscriber>();
+
+        // Fixed once the response has been received and no caller can attach anymore
+        private Subscriber[] m_streaming;
+
+        private boolean m_done = false;
+
+        private Exception m_failure;
+
+        Flight(final String key, final Subscriber leader) {
+            m_key = key;
+            m_subscribers.add(leader);
+        }
+
+        synchronized boolean attach(final Subscriber subscriber) {
+            if (m_streaming != null || m_done) {
+                return false;
+            }
+            m_subscribers.add(subscriber);
+            return true;
+        }
+
+        int lead(final Subscriber leader, final ExecutionContext context, final Fetch fetch) throws Exception {
+            try {
+                fetch.run(this, context);
+                finish(null);
+            } catch (Exception e) {
+                finish(e);
+                throw e;
+            } finally {
+                FLIGHTS.remove(m_key, this);
+            }
+            leader.rethrow();
+            return leader.m_rows;
+        }
+
+        /**
+         * @return The number of rows handed to the subscriber or <code>null</code> if the fetch was canceled before
+         *         its first response, so the caller has to fetch again
+         * @throws IOException If the fetch was canceled after rows had been handed to the subscriber, the caller was
+         *             not canceled itself and must not report a cancellation
+         */
+        Integer follow(final Subscriber subscriber, final ExecutionContext context) throws Exception {
+            synchronized (this) {
+                while (!m_done) {
+                    if (context != null) {
+                        context.setMessage("Waiting for an identical running query");
+                        try {
+                            context.checkCanceled();
+                        } catch (CanceledExecutionException e) {
+                            subscriber.detach();
+                            throw e;
+                        }
+                    }
+                    try {
+                        wait(500);
+                    } catch (InterruptedException e) {
+                        subscriber.detach();
+                        Thread.currentThread().interrupt();
+                        throw new CanceledExecutionException("Interrupted while waiting for results");
+                    }
+                }
+            }
+            if (m_failure != null) {
+                if (isCancellation(m_failure)) {
+                    if (!subscriber.isStarted()) {
+                        return null;
+                    }
+                    throw new IOException("The identical query this node was attached to was canceled while "
+                        + "returning rows, execute the node again", m_failure);
+                }
+                throw m_failure;
+            }
+            subscriber.rethrow();
+            return subscriber.m_rows;
+        }
+
+        private synchronized void finish(final Exception failure) {
+            m_done = true;
+            m_failure = failure;
+            notifyAll();
+        }
+
+        private static boolean isCancellation(final Exception exception) {
+            return exception instanceof CanceledExecutionException
+                || exception instanceof InterruptedIOException;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean start(final GaData dataModel) {
+            synchronized (this) {
+                m_streaming = m_subscribers.toArray(new Subscriber[m_subscribers.size()]);
+            }
+            FLIGHTS.remove(m_key, this);
+            boolean active = false;
+            for (Subscriber subscriber : m_streaming) {
+                active |= subscriber.start(dataModel);
+            }
+            return active;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void value(final int column, final String value) {
+            for (Subscriber subscriber : m_streaming) {
+                subscriber.value(column, value);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void endRow() {
+            for (Subscriber subscriber : m_streaming) {
+                subscriber.endRow();
+            }
+        }
+    }
+
+    /**
+     * A caller's consumer. It stops receiving rows once it declined the response, failed or its caller was canceled,
+     * without affecting the other callers.
+     */
+    private static class Subscriber {
+
+        private final GoogleAnalyticsRowConsumer m_consumer;
+
+        private boolean m_active = true;
+
+        private boolean m_started = false;
+
+        private int m_rows = 0;
+
+        private RuntimeException m_failure;
+
+        Subscriber(final GoogleAnalyticsRowConsumer consumer) {
+            m_consumer = consumer;
+        }
+
+        synchronized boolean start(final GaData dataModel) {
+            if (!m_active) {
+                return false;
+            }
+            m_started = true;
+            try {
+                m_active = m_consumer.start(dataModel);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+            return m_active;
+        }
+
+        synchronized void value(final int column, final String value) {
+            if (m_active) {
+                try {
+                    m_consumer.value(column, value);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        synchronized void endRow() {
+            if (m_active) {
+                try {
+                    m_consumer.endRow();
+                    m_rows++;
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        synchronized boolean isStarted() {
+            return m_started;
+        }
+
+        synchronized void detach() {
+            m_active = false;
+        }
+
+        synchronized void rethrow() {
+            if (m_failure != null) {
+                throw m_failure;
+            }
+        }
+
+        private void fail(final RuntimeException e) {
+            m_failure = e;
+            m_active = false;
+        }
+    }
+
+}
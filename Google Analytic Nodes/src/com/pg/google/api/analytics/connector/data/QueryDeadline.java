@@ -0,0 +1,116 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.client.http.HttpRequest;
+import com.pg.google.api.connector.data.AbortScope;
+
+/**
+ * The time a query may take across all of its pages and retries. Requests of the query are sent within its
+ * {@link AbortScope}: when the query is aborted, e.g. because the node was canceled or the deadline has passed, the
+ * requests still waiting for or reading their response are aborted, so the threads sending them are released at once
+ * instead of when the read timeout hits.
+ *
+ * Requests only get the time left as connect and read timeout, so with a transport that can not abort requests they
+ * do not outlive the deadline either.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class QueryDeadline {
+
+    private final long m_millis;
+
+    // System.nanoTime() at which the deadline passes, only valid if m_millis > 0
+    private final long m_expires;
+
+    private final AbortScope m_scope = new AbortScope();
+
+    /**
+     * @param millis The time the query may take, 0 for no deadline
+     */
+    QueryDeadline(final long millis) {
+        m_millis = Math.max(0, millis);
+        m_expires = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_millis);
+    }
+
+    /**
+     * @return The time left in milliseconds, {@link Long#MAX_VALUE} if there is no deadline
+     */
+    long getRemainingMillis() {
+        if (m_millis == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(m_expires - System.nanoTime()));
+    }
+
+    /**
+     * @throws InterruptedIOException If the deadline has passed or the query was aborted
+     */
+    void check() throws InterruptedIOException {
+        if (m_scope.isAborted()) {
+            throw new InterruptedIOException("Query was aborted");
+        }
+        if (getRemainingMillis() <= 0) {
+            throw new InterruptedIOException("Query did not finish within " + formatMinutes(m_millis));
+        }
+    }
+
+    /**
+     * Waits before a retry.
+     *
+     * @param millis The time to wait
+     * @throws InterruptedIOException If the deadline passes before or the thread was interrupted
+     */
+    void sleep(final long millis) throws InterruptedIOException {
+        if (millis >= getRemainingMillis()) {
+            throw new InterruptedIOException("Query did not finish within " + formatMinutes(m_millis)
+                + ", no time left to retry");
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+        check();
+    }
+
+    /**
+     * Reduces the connect and read timeout of a request to the time left.
+     *
+     * @param request The request about to be sent
+     * @throws InterruptedIOException If the deadline has passed or the query was aborted
+     */
+    void limitTimeouts(final HttpRequest request) throws InterruptedIOException {
+        check();
+        long remaining = getRemainingMillis();
+        if (remaining < Integer.MAX_VALUE) {
+            // 0 would disable the timeouts
+            int limit = (int)Math.max(1, remaining);
+            request.setConnectTimeout(request.getConnectTimeout() > 0 ? Math.min(request.getConnectTimeout(), limit)
+                : limit);
+            request.setReadTimeout(request.getReadTimeout() > 0 ? Math.min(request.getReadTimeout(), limit) : limit);
+        }
+    }
+
+    /**
+     * @return The scope the requests of the query are sent in
+     */
+    AbortScope getScope() {
+        return m_scope;
+    }
+
+    /**
+     * Stops the query, running requests are aborted and further requests fail.
+     */
+    void abort() {
+        m_scope.abort();
+    }
+
+    private static String formatMinutes(final long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        return seconds % 60 == 0 ? (seconds / 60) + " min" : seconds + " s";
+    }
+
+}
@@ -0,0 +1,371 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.knime.core.node.KNIMEConstants;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+
+/**
+ * Counts the requests sent to the Analytics API against the daily quotas Google enforces per project (OAuth client)
+ * and per view (profile). The counts are kept on disk in the KNIME home directory, so they survive restarts, and start
+ * over at midnight Pacific Time when Google resets the quotas.
+ *
+ * The ledger only sees the requests of this KNIME instance, so its counts are a lower bound of what has been spent.
+ * Before a query fetches its remaining pages {@link #admit(String, String, int)} decides whether the planned requests
+ * still fit: queries that would run out of quota halfway through are refused, queries that would use up most of the
+ * remaining quota are told to spend as few requests as possible. The limits can be changed with the system properties
+ * <code>pg.ganalytics.quota.projectDailyLimit</code> and <code>pg.ganalytics.quota.viewDailyLimit</code>.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public class QuotaLedger {
+
+    /**
+     * How a query with a number of planned requests is handled.
+     */
+    public enum Admission {
+        /** Enough quota is left. */
+        ADMIT,
+        /** The requests fit, but leave little quota for other queries, they should be as few as possible. */
+        LOW_PRIORITY,
+        /** The requests do not fit into the quota left today. */
+        REJECT
+    }
+
+    /**
+     * Daily requests per project, as documented for the Core Reporting and Management APIs.
+     */
+    public static final int PROJECT_DAILY_LIMIT = Integer.getInteger("pg.ganalytics.quota.projectDailyLimit", 50000);
+
+    /**
+     * Daily requests per view (profile), as documented for the Core Reporting API.
+     */
+    public static final int VIEW_DAILY_LIMIT = Integer.getInteger("pg.ganalytics.quota.viewDailyLimit", 10000);
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(QuotaLedger.class);
+
+    // Share of a daily limit above which queries are down-prioritized
+    private static final double LOW_PRIORITY_SHARE = 0.8;
+
+    private static final long SAVE_INTERVAL_MILLIS = 10000;
+
+    private static final String FILE_NAME = "pg-ganalytics-quota.properties";
+
+    private static final String KEY_DAY = "day";
+
+    private static final String PREFIX_PROJECT = "project.";
+
+    private static final String PREFIX_VIEW = "view.";
+
+    private static final TimeZone PACIFIC = TimeZone.getTimeZone("America/Los_Angeles");
+
+    private final File m_file;
+
+    private final Map<String, Integer> m_projects = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> m_views = new HashMap<String, Integer>();
+
+    private String m_day;
+
+    private boolean m_dirty = false;
+
+    private long m_lastSaved = 0;
+
+    private static class Holder {
+        private static final QuotaLedger INSTANCE = createInstance();
+    }
+
+    /**
+     * @param file The file the counts are kept in, <code>null</code> to only count in memory
+     */
+    public QuotaLedger(final File file) {
+        m_file = file;
+        m_day = today();
+        load();
+    }
+
+    /**
+     * @return The ledger shared by all connections in the JVM
+     */
+    public static QuotaLedger getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static QuotaLedger createInstance() {
+        String home = KNIMEConstants.getKNIMEHomeDir();
+        final QuotaLedger ledger =
+                new QuotaLedger(new File(home != null ? home : System.getProperty("user.home"), FILE_NAME));
+        Runtime.getRuntime().addShutdownHook(new Thread("GA-Quota-Ledger") {
+            @Override
+            public void run() {
+                ledger.save();
+            }
+        });
+        return ledger;
+    }
+
+    /**
+     * Counts a request that is about to be sent.
+     *
+     * @param project The OAuth client ID of the request
+     * @param view The queried profile ID for Core Reporting requests, <code>null</code> for Management requests
+     */
+    public synchronized void record(final String project, final String view) {
+        rollOver();
+        increment(m_projects, String.valueOf(project));
+        if (view != null) {
+            increment(m_views, view);
+        }
+        m_dirty = true;
+        if (System.currentTimeMillis() - m_lastSaved >= SAVE_INTERVAL_MILLIS) {
+            save();
+        }
+    }
+
+    /**
+     * @param project The OAuth client ID
+     * @return The requests counted for the project today
+     */
+    public synchronized int getProjectUsage(final String project) {
+        rollOver();
+        return get(m_projects, String.valueOf(project));
+    }
+
+    /**
+     * @param view The profile ID
+     * @return The requests counted for the view today
+     */
+    public synchronized int getViewUsage(final String view) {
+        rollOver();
+        return get(m_views, view);
+    }
+
+    /**
+     * @param project The OAuth client ID of the query
+     * @param view The queried profile ID or <code>null</code>
+     * @param requests The number of requests the query still plans to send
+     * @return How the query is handled
+     */
+    public synchronized Admission admit(final String project, final String view, final int requests) {
+        rollOver();
+        int projectUsage = get(m_projects, String.valueOf(project)) + requests;
+        int viewUsage = view != null ? get(m_views, view) + requests : 0;
+        if (projectUsage > PROJECT_DAILY_LIMIT || viewUsage > VIEW_DAILY_LIMIT) {
+            return Admission.REJECT;
+        }
+        if (projectUsage > PROJECT_DAILY_LIMIT * LOW_PRIORITY_SHARE
+                || viewUsage > VIEW_DAILY_LIMIT * LOW_PRIORITY_SHARE) {
+            return Admission.LOW_PRIORITY;
+        }
+        return Admission.ADMIT;
+    }
+
+    /**
+     * Like {@link #admit(String, String, int)}, but fails instead of returning {@link Admission#REJECT}.
+     *
+     * @return {@link Admission#ADMIT} or {@link Admission#LOW_PRIORITY}
+     * @throws QuotaExceededException If the requests do not fit into the quota left today
+     */
+    public synchronized Admission checkAdmission(final String project, final String view, final int requests)
+            throws QuotaExceededException {
+        Admission admission = admit(project, view, requests);
+        if (admission == Admission.REJECT) {
+            throw new QuotaExceededException("Not enough daily quota left for " + requests + " requests (project: "
+                + getProjectUsage(project) + " of " + PROJECT_DAILY_LIMIT + " used"
+                + (view != null ? ", view " + view + ": " + getViewUsage(view) + " of " + VIEW_DAILY_LIMIT + " used"
+                    : "") + "). The quota resets in " + formatDuration(getMillisUntilReset()));
+        }
+        return admission;
+    }
+
+    /**
+     * Returns an initializer that counts every request before it is sent and refuses requests once the ledger knows
+     * the daily limit is reached.
+     *
+     * @param project The OAuth client ID of the requests
+     * @param initializer The initializer to wrap, may be <code>null</code>
+     * @return The counting initializer
+     */
+    public HttpRequestInitializer wrap(final String project, final HttpRequestInitializer initializer) {
+        return new HttpRequestInitializer() {
+            @Override
+            public void initialize(final HttpRequest request) throws IOException {
+                if (initializer != null) {
+                    initializer.initialize(request);
+                }
+                final HttpExecuteInterceptor interceptor = request.getInterceptor();
+                request.setInterceptor(new HttpExecuteInterceptor() {
+                    @Override
+                    public void intercept(final HttpRequest request) throws IOException {
+                        String view = getView(request);
+                        checkAdmission(project, view, 1);
+                        record(project, view);
+                        if (interceptor != null) {
+                            interceptor.intercept(request);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Writes the counts to disk.
+     */
+    public synchronized void save() {
+        m_lastSaved = System.currentTimeMillis();
+        if (m_file == null || !m_dirty) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(KEY_DAY, m_day);
+        for (Map.Entry<String, Integer> entry : m_projects.entrySet()) {
+            properties.setProperty(PREFIX_PROJECT + entry.getKey(), entry.getValue().toString());
+        }
+        for (Map.Entry<String, Integer> entry : m_views.entrySet()) {
+            properties.setProperty(PREFIX_VIEW + entry.getKey(), entry.getValue().toString());
+        }
+        // Write a copy and replace the file, so a crash never leaves a truncated ledger
+        File temp = new File(m_file.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                properties.store(out, "Google Analytics requests per Pacific Time day");
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(m_file) && !(m_file.delete() && temp.renameTo(m_file))) {
+                throw new IOException("Unable to replace " + m_file);
+            }
+            m_dirty = false;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save the quota ledger: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The time until Google resets the daily quotas (midnight Pacific Time)
+     */
+    public static long getMillisUntilReset() {
+        Calendar midnight = Calendar.getInstance(PACIFIC);
+        midnight.add(Calendar.DAY_OF_MONTH, 1);
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        return midnight.getTimeInMillis() - System.currentTimeMillis();
+    }
+
+    private void load() {
+        if (m_file == null || !m_file.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(m_file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read the quota ledger, starting with empty counts: " + e.getMessage());
+            return;
+        }
+        if (!m_day.equals(properties.getProperty(KEY_DAY))) {
+            // Counted on an earlier day, the quotas have been reset since
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PREFIX_PROJECT)) {
+                load(m_projects, key.substring(PREFIX_PROJECT.length()), properties.getProperty(key));
+            } else if (key.startsWith(PREFIX_VIEW)) {
+                load(m_views, key.substring(PREFIX_VIEW.length()), properties.getProperty(key));
+            }
+        }
+    }
+
+    private static void load(final Map<String, Integer> counts, final String key, final String value) {
+        try {
+            counts.put(key, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            LOGGER.debug("Ignoring invalid quota ledger entry " + key + "=" + value);
+        }
+    }
+
+    private void rollOver() {
+        String day = today();
+        if (!day.equals(m_day)) {
+            LOGGER.info("Daily Google Analytics quotas were reset, starting new counts for " + day);
+            m_day = day;
+            m_projects.clear();
+            m_views.clear();
+            m_dirty = true;
+        }
+    }
+
+    private static String today() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(PACIFIC);
+        return format.format(new Date());
+    }
+
+    /**
+     * @return The profile ID of a Core Reporting request or <code>null</code> for other requests
+     */
+    private static String getView(final HttpRequest request) {
+        Object ids = request.getUrl().getFirst("ids");
+        if (ids == null) {
+            return null;
+        }
+        String view = ids.toString();
+        return view.startsWith("ga:") ? view.substring(3) : view;
+    }
+
+    private static int get(final Map<String, Integer> counts, final String key) {
+        Integer count = counts.get(key);
+        return count != null ? count : 0;
+    }
+
+    private static void increment(final Map<String, Integer> counts, final String key) {
+        counts.put(key, get(counts, key) + 1);
+    }
+
+    private static String formatDuration(final long millis) {
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(millis);
+        return (minutes / 60) + " h " + (minutes % 60) + " min";
+    }
+
+    /**
+     * Thrown instead of sending requests that do not fit into the daily quota left.
+     */
+    public static class QuotaExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param message The reason
+         */
+        public QuotaExceededException(final String message) {
+            super(message);
+        }
+    }
+
+}
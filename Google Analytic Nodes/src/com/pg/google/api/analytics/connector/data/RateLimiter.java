@@ -0,0 +1,137 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+
+/**
+ * Token bucket that paces requests sharing a quota so they are sent evenly spread out below the given rate, instead
+ * of running into rate limit errors and backing off.
+ * 
+ * The bucket is lock-free: every caller reserves the next free slot with a compare-and-set and sleeps outside of any
+ * lock until its slot has come. {@link #getShared(String, String)} returns the limiter of an OAuth client and user,
+ * shared by all connections in the JVM.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public class RateLimiter {
+
+    /**
+     * Rate of the shared limiters, below the documented limit of 10 queries per second per user.
+     */
+    public static final double SHARED_REQUESTS_PER_SECOND = 8;
+
+    // Idle connections may send this many requests at once, keeping every second below the documented limit
+    private static final int SHARED_BURST = 2;
+
+    private static final ConcurrentMap<String, RateLimiter> SHARED = new ConcurrentHashMap<String, RateLimiter>();
+
+    private final long m_intervalNanos;
+
+    private final long m_burstNanos;
+
+    // Slot the next request gets if the bucket is not full, in System.nanoTime()
+    private final AtomicLong m_nextSlot;
+
+    /**
+     * @param requestsPerSecond The maximum number of requests per second
+     */
+    public RateLimiter(final double requestsPerSecond) {
+        this(requestsPerSecond, 1);
+    }
+
+    /**
+     * @param requestsPerSecond The maximum number of requests per second
+     * @param burst The number of requests that may be sent at once after the limiter was idle
+     */
+    public RateLimiter(final double requestsPerSecond, final int burst) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("Requests per second must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        m_intervalNanos = (long)(TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        m_burstNanos = (burst - 1) * m_intervalNanos;
+        m_nextSlot = new AtomicLong(System.nanoTime() - m_burstNanos);
+    }
+
+    /**
+     * @param clientId The OAuth client ID
+     * @param user The identity of the user that authorized the client, e.g. its refresh token
+     * @return The limiter shared by all requests of this client and user in the JVM
+     */
+    public static RateLimiter getShared(final String clientId, final String user) {
+        String key = clientId + "\n" + user;
+        RateLimiter limiter = SHARED.get(key);
+        if (limiter == null) {
+            RateLimiter created = new RateLimiter(SHARED_REQUESTS_PER_SECOND, SHARED_BURST);
+            limiter = SHARED.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Blocks until the next request may be sent.
+     * 
+     * @throws InterruptedIOException If the thread was interrupted while waiting
+     */
+    public void acquire() throws InterruptedIOException {
+        long now;
+        long slot;
+        while (true) {
+            now = System.nanoTime();
+            long next = m_nextSlot.get();
+            // A full bucket does not save up more than the burst
+            slot = next - (now - m_burstNanos) < 0 ? now - m_burstNanos : next;
+            if (m_nextSlot.compareAndSet(next, slot + m_intervalNanos)) {
+                break;
+            }
+        }
+        long waitNanos = slot - now;
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+            }
+        }
+    }
+
+    /**
+     * @param initializer The initializer of the client, e.g. its credential, may be <code>null</code>
+     * @return An initializer that lets every request (including retries) pass this limiter before it is sent
+     */
+    public HttpRequestInitializer wrap(final HttpRequestInitializer initializer) {
+        return new HttpRequestInitializer() {
+            @Override
+            public void initialize(final HttpRequest request) throws IOException {
+                if (initializer != null) {
+                    initializer.initialize(request);
+                }
+                final HttpExecuteInterceptor interceptor = request.getInterceptor();
+                request.setInterceptor(new HttpExecuteInterceptor() {
+                    @Override
+                    public void intercept(final HttpRequest request) throws IOException {
+                        acquire();
+                        if (interceptor != null) {
+                            interceptor.intercept(request);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.pg.google.api.analytics.connector.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+
+/**
+ * Decides whether a failed request is retried and how long to wait before. Waits grow exponentially with full jitter
+ * (a random time between zero and the exponential bound), so concurrent requests that failed together do not retry
+ * together. All requests of a query share a retry budget, so a query against a failing backend gives up after a
+ * bounded number of retries instead of retrying every page.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public class RetryPolicy {
+
+    /**
+     * How a failed request is handled.
+     */
+    public enum Action {
+        /** Retry the request unchanged, e.g. after a rate limit error or a reset connection. */
+        RETRY,
+        /** Retry the request with a smaller page, e.g. after a timeout or backend error. */
+        RETRY_SMALLER_PAGE,
+        /** Fail immediately, retrying cannot succeed, e.g. exhausted daily quota or missing permissions. */
+        FAIL
+    }
+
+    /**
+     * Policy used by connections that were not given another one.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(6, 1000, 32000, 30);
+
+    private static final Random RANDOM = new Random();
+
+    private final int m_maxAttempts;
+
+    private final long m_baseDelayMillis;
+
+    private final long m_maxDelayMillis;
+
+    private final int m_retryBudget;
+
+    /**
+     * @param maxAttempts Maximum number of attempts per request, including the first one
+     * @param baseDelayMillis Upper bound of the wait before the first retry
+     * @param maxDelayMillis Upper bound of the wait before any retry
+     * @param retryBudget Maximum number of retries of all requests of a query together
+     */
+    public RetryPolicy(final int maxAttempts, final long baseDelayMillis, final long maxDelayMillis,
+            final int retryBudget) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required");
+        }
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= base delay <= max delay");
+        }
+        if (retryBudget < 0) {
+            throw new IllegalArgumentException("Retry budget must not be negative");
+        }
+        m_maxAttempts = maxAttempts;
+        m_baseDelayMillis = baseDelayMillis;
+        m_maxDelayMillis = maxDelayMillis;
+        m_retryBudget = retryBudget;
+    }
+
+    /**
+     * @return Maximum number of attempts per request, including the first one
+     */
+    public int getMaxAttempts() {
+        return m_maxAttempts;
+    }
+
+    /**
+     * @return A new budget for the retries of a single query
+     */
+    public Budget newBudget() {
+        return new Budget(m_retryBudget);
+    }
+
+    /**
+     * @param exception The exception of the failed request
+     * @return How the request is handled
+     */
+    public Action classify(final IOException exception) {
+        if (exception instanceof GoogleJsonResponseException) {
+            GoogleJsonResponseException e = (GoogleJsonResponseException)exception;
+            String reason = getReason(e.getDetails());
+            if ("dailyLimitExceeded".equals(reason)) {
+                // The quota resets at midnight Pacific Time
+                return Action.FAIL;
+            }
+            if ("rateLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason)
+                    || "quotaExceeded".equals(reason)) {
+                return Action.RETRY;
+            }
+            if ("backendError".equals(reason) || "internalServerError".equals(reason)) {
+                return Action.RETRY_SMALLER_PAGE;
+            }
+            return classifyStatus(e.getStatusCode());
+        }
+        if (exception instanceof HttpResponseException) {
+            return classifyStatus(((HttpResponseException)exception).getStatusCode());
+        }
+        if (exception instanceof SocketTimeoutException) {
+            return Action.RETRY_SMALLER_PAGE;
+        }
+        if (exception instanceof InterruptedIOException) {
+            // The thread was interrupted, the query is canceled
+            return Action.FAIL;
+        }
+        if (exception instanceof SocketException || exception instanceof EOFException) {
+            // Connection reset or closed while reading the response
+            return Action.RETRY;
+        }
+        return Action.FAIL;
+    }
+
+    /**
+     * @param attempt The number of the failed attempt, starting with 1
+     * @return The time to wait before the next attempt
+     */
+    public long getDelayMillis(final int attempt) {
+        long bound = m_baseDelayMillis << Math.min(attempt - 1, 20);
+        bound = Math.min(bound, m_maxDelayMillis);
+        if (bound <= 0) {
+            return 0;
+        }
+        synchronized (RANDOM) {
+            return (long)(RANDOM.nextDouble() * bound);
+        }
+    }
+
+    private static Action classifyStatus(final int statusCode) {
+        if (statusCode == 429) {
+            return Action.RETRY;
+        }
+        if (statusCode >= 500) {
+            return Action.RETRY_SMALLER_PAGE;
+        }
+        // Bad request, missing authorization or permissions
+        return Action.FAIL;
+    }
+
+    /**
+     * @param details The error of a failed request
+     * @return The reason of its first error, e.g. <code>rateLimitExceeded</code>, or <code>null</code>
+     */
+    static String getReason(final GoogleJsonError details) {
+        if (details == null || details.getErrors() == null || details.getErrors().isEmpty()) {
+            return null;
+        }
+        return details.getErrors().get(0).getReason();
+    }
+
+    /**
+     * Retries left for a single query, shared by all of its requests.
+     */
+    public static class Budget {
+
+        private final AtomicInteger m_remaining;
+
+        Budget(final int retries) {
+            m_remaining = new AtomicInteger(retries);
+        }
+
+        /**
+         * @return true if a retry may be made, false if the budget is exhausted
+         */
+        public boolean tryAcquire() {
+            while (true) {
+                int remaining = m_remaining.get();
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (m_remaining.compareAndSet(remaining, remaining - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+}
@@ -64,9 +64,17 @@ public class GoogleAnalyticsConnectorConfiguration {
 
     public static final String CFG_PROFILE_ID = "profile_id";
     public static final String CFG_TIME_OUT = "time_out";
+    public static final String CFG_QUERY_DEADLINE = "query_deadline";
+    public static final String APPLICATION_NAME = "KNIME-Google-Analytics-Connector";
+
+    /**
+     * Maximum deadline of a query in minutes (one day).
+     */
+    public static final int MAX_QUERY_DEADLINE = 24 * 60;
 
     private String m_profileId = "";
     private String m_timeOut = "5";
+    private int m_queryDeadline = 0;
 
     /**
      * @return the profileId
@@ -92,12 +100,32 @@ public class GoogleAnalyticsConnectorConfiguration {
 		this.m_timeOut = m_timeOut;
 	}
 
+    /**
+     * @return The time in minutes a query may take across all pages and retries, 0 if it is not limited
+     */
+    public int getQueryDeadline() {
+        return m_queryDeadline;
+    }
+
+    /**
+     * @param queryDeadline The time in minutes a query may take across all pages and retries, 0 for no limit
+     * @throws InvalidSettingsException If the value is negative or greater than {@link #MAX_QUERY_DEADLINE}
+     */
+    public void setQueryDeadline(final int queryDeadline) throws InvalidSettingsException {
+        if (queryDeadline < 0 || queryDeadline > MAX_QUERY_DEADLINE) {
+            throw new InvalidSettingsException("Query deadline must be between 0 and " + MAX_QUERY_DEADLINE
+                + " minutes");
+        }
+        m_queryDeadline = queryDeadline;
+    }
+
 	/**
      * @param settings The settings object to save in
      */
     public void save(final NodeSettingsWO settings) {
         settings.addString(CFG_PROFILE_ID, m_profileId);
         settings.addString(CFG_TIME_OUT, m_timeOut);
+        settings.addInt(CFG_QUERY_DEADLINE, m_queryDeadline);
     }
 
     /**
@@ -107,6 +135,8 @@ public class GoogleAnalyticsConnectorConfiguration {
     public void loadInModel(final NodeSettingsRO settings) throws InvalidSettingsException {
         m_profileId = settings.getString(CFG_PROFILE_ID);
         m_timeOut = settings.getString(CFG_TIME_OUT);
+        // Added later, older workflows have no deadline
+        setQueryDeadline(settings.getInt(CFG_QUERY_DEADLINE, 0));
     }
 
     /**
@@ -115,6 +145,7 @@ public class GoogleAnalyticsConnectorConfiguration {
     public void loadInDialog(final NodeSettingsRO settings) {
         m_profileId = settings.getString(CFG_PROFILE_ID, "");
         m_timeOut = settings.getString(CFG_TIME_OUT, "");
+        m_queryDeadline = Math.max(0, Math.min(settings.getInt(CFG_QUERY_DEADLINE, 0), MAX_QUERY_DEADLINE));
     }
 
     /**
@@ -125,7 +156,8 @@ public class GoogleAnalyticsConnectorConfiguration {
     public GoogleAnalyticsConnection createGoogleAnalyticsConnection(final GoogleApiConnection googleApiConnection)
             throws InvalidSettingsException {
         
-        return new GoogleAnalyticsConnection(googleApiConnection, "KNIME-Google-Analytics-Connector", m_profileId, m_timeOut);
+        return new GoogleAnalyticsConnection(googleApiConnection, APPLICATION_NAME, m_profileId, m_timeOut,
+            m_queryDeadline);
     }
 
 }
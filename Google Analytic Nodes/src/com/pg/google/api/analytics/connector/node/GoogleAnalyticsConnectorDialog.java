@@ -15,7 +15,9 @@ import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 
 import org.apache.commons.lang.StringUtils;
@@ -44,6 +46,11 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
 	
 	private JTextField txtTimeout;
 	
+	private JSpinner spnQueryDeadline;
+	
+	// Connection of the current input, used to prefetch the next level of the management hierarchy
+	private GoogleApiConnection apiConnection;
+	
     /**
      * Constructor creating the dialogs content.
      */
@@ -57,7 +64,18 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
     	pnlSettings.add(new JLabel("Accounts:", SwingConstants.LEFT), getGBC(0, 0, 0, 0));
     	
     	accounts = new SortedComboBoxModel<String>();
-    	pnlSettings.add(new JComboBox<String>(accounts), getGBC(0, 1, 1, 0));
+    	JComboBox<String> cbxAccounts = new JComboBox<String>(accounts);
+    	pnlSettings.add(cbxAccounts, getGBC(0, 1, 1, 0));
+    	cbxAccounts.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				// The web properties are likely asked for next
+				String accountId = getSelectedId(accounts, accountMap);
+				if ( apiConnection != null && accountId != null ) {
+					GoogleAnalyticsConnection.prefetchWebProperties(apiConnection, accountId);
+				}
+			}
+		});
     	
     	btnListAccounts = new JButton("Get");
     	pnlSettings.add(btnListAccounts, getGBC(1, 1, 0, 0));
@@ -65,7 +83,19 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
     	pnlSettings.add(new JLabel("Web Properties:", SwingConstants.LEFT), getGBC(0, 2, 0, 0));
     	
     	properties = new SortedComboBoxModel<String>();
-    	pnlSettings.add(new JComboBox<String>(properties), getGBC(0, 3, 1, 0));
+    	JComboBox<String> cbxProperties = new JComboBox<String>(properties);
+    	pnlSettings.add(cbxProperties, getGBC(0, 3, 1, 0));
+    	cbxProperties.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				// The profiles are likely asked for next
+				String accountId = getSelectedId(accounts, accountMap);
+				String propertyId = getSelectedId(properties, propertyMap);
+				if ( apiConnection != null && accountId != null && propertyId != null ) {
+					GoogleAnalyticsConnection.prefetchProfiles(apiConnection, accountId, propertyId);
+				}
+			}
+		});
     	
     	btnListProperties = new JButton("Get");
     	pnlSettings.add(btnListProperties, getGBC(1, 3, 0, 0));
@@ -105,11 +135,21 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
     	txtTimeout = new JTextField();
     	pnlAdvanced.add(txtTimeout, getGBC(0, 2, 0, 0));
     	
-    	pnlAdvanced.add(new JPanel(), getGBC(0, 3, 100, 100));
+    	pnlAdvanced.add(new JLabel("Query Deadline (minutes, 0 = none)", SwingConstants.LEFT), getGBC(0, 3, 0, 0));
+    	
+    	spnQueryDeadline = new JSpinner(new SpinnerNumberModel(0, 0, GoogleAnalyticsConnectorConfiguration.MAX_QUERY_DEADLINE, 1));
+    	pnlAdvanced.add(spnQueryDeadline, getGBC(0, 4, 0, 0));
+    	
+    	pnlAdvanced.add(new JPanel(), getGBC(0, 5, 100, 100));
     	addTab("Advanced", pnlAdvanced);
     	
     }
     
+    private static String getSelectedId( DefaultComboBoxModel<String> model, Map<String, String> ids ) {
+    	Object selected = model.getSelectedItem();
+    	return selected != null && ids != null ? ids.get(selected) : null;
+    }
+    
     private static GridBagConstraints getGBC( int gridx, int gridy, int weightx, int weighty ) {
     	return new GridBagConstraints(
 				gridx, 							// gridx
@@ -136,6 +176,7 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
         GoogleAnalyticsConnectorConfiguration config = new GoogleAnalyticsConnectorConfiguration();
         config.setProfileId(txtProfileId.getText());
         config.setTimeOut(txtTimeout.getText());
+        config.setQueryDeadline((Integer)spnQueryDeadline.getValue());
         config.save(settings);
     }
 
@@ -155,6 +196,9 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
         }
         
         
+        apiConnection = connectionSpec.getGoogleApiConnection();
+        GoogleAnalyticsConnection.prefetchAccounts(apiConnection);
+        
         btnListAccounts.addActionListener(
         		new GetAccountList(connectionSpec.getGoogleApiConnection())
         );
@@ -177,6 +221,7 @@ public class GoogleAnalyticsConnectorDialog extends NodeDialogPane {
         if (!config.getTimeOut().isEmpty() ) {
         	txtTimeout.setText(config.getTimeOut());
         }
+        spnQueryDeadline.setValue(config.getQueryDeadline());
         
     }
 
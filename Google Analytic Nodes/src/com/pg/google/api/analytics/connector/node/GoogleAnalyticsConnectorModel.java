@@ -62,6 +62,7 @@ import org.knime.core.node.port.PortObject;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.port.PortType;
 
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnectionPortObject;
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnectionPortObjectSpec;
 import com.pg.google.api.connector.data.GoogleApiConnectionPortObject;
@@ -76,6 +77,10 @@ public class GoogleAnalyticsConnectorModel extends NodeModel {
 
     private GoogleAnalyticsConnectorConfiguration m_config = new GoogleAnalyticsConnectorConfiguration();
 
+    // Connection of the last created spec, its Analytics client is released when the next one is created or the node
+    // is reset
+    private GoogleAnalyticsConnection m_connection;
+
     /**
      * Constructor of the node model.
      */
@@ -150,7 +155,15 @@ public class GoogleAnalyticsConnectorModel extends NodeModel {
      */
     @Override
     protected void reset() {
-        // not used
+        releaseConnection();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDispose() {
+        releaseConnection();
     }
 
     /**
@@ -159,9 +172,19 @@ public class GoogleAnalyticsConnectorModel extends NodeModel {
      */
     private GoogleAnalyticsConnectionPortObjectSpec createSpec(final PortObjectSpec inSpec)
             throws InvalidSettingsException {
-        return new GoogleAnalyticsConnectionPortObjectSpec(
-                m_config.createGoogleAnalyticsConnection(((GoogleApiConnectionPortObjectSpec)inSpec)
-                        .getGoogleApiConnection()));
+        GoogleAnalyticsConnection connection = m_config.createGoogleAnalyticsConnection(
+                ((GoogleApiConnectionPortObjectSpec)inSpec).getGoogleApiConnection());
+        // Specs handed out before keep working, they only stop holding the shared client
+        releaseConnection();
+        m_connection = connection;
+        return new GoogleAnalyticsConnectionPortObjectSpec(connection);
+    }
+
+    private void releaseConnection() {
+        if (m_connection != null) {
+            m_connection.release();
+            m_connection = null;
+        }
     }
 
 }
@@ -0,0 +1,123 @@
+package com.pg.google.api.analytics.multiprofile.node;
+
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+
+import com.pg.google.api.analytics.query.node.GoogleAnalyticsQueryConfiguration;
+
+/**
+ * Configuration of the GoogleAnalyticsMultiProfileQuery node, the query settings plus the profiles to run them on.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public class GoogleAnalyticsMultiProfileQueryConfiguration extends GoogleAnalyticsQueryConfiguration {
+
+    private static final String CFG_PROFILE_COLUMN = "profile-column";
+
+    private static final String CFG_PARALLEL_PROFILES = "parallel-profiles";
+
+    private static final String CFG_REQUESTS_PER_SECOND = "requests-per-second";
+
+    /**
+     * Upper bound for the number of profiles that are queried at the same time.
+     */
+    public static final int MAX_PARALLEL_PROFILES = 20;
+
+    /**
+     * Upper bound for the configurable request rate.
+     */
+    public static final int MAX_REQUESTS_PER_SECOND = 50;
+
+    private String m_profileColumn = "";
+
+    private int m_parallelProfiles = 4;
+
+    private int m_requestsPerSecond = 10;
+
+    /**
+     * @return the name of the column holding the profile IDs
+     */
+    public String getProfileColumn() {
+        return m_profileColumn;
+    }
+
+    /**
+     * @param profileColumn the name of the column holding the profile IDs
+     */
+    public void setProfileColumn(final String profileColumn) {
+        m_profileColumn = profileColumn;
+    }
+
+    /**
+     * @return the number of profiles that are queried at the same time
+     */
+    public int getParallelProfiles() {
+        return m_parallelProfiles;
+    }
+
+    /**
+     * @param parallelProfiles the number of profiles that are queried at the same time
+     * @throws InvalidSettingsException If the value is not between 1 and {@link #MAX_PARALLEL_PROFILES}
+     */
+    public void setParallelProfiles(final int parallelProfiles) throws InvalidSettingsException {
+        if (parallelProfiles < 1 || parallelProfiles > MAX_PARALLEL_PROFILES) {
+            throw new InvalidSettingsException("Parallel profiles must be between 1 and " + MAX_PARALLEL_PROFILES);
+        }
+        m_parallelProfiles = parallelProfiles;
+    }
+
+    /**
+     * @return the maximum number of requests per second shared by all profiles
+     */
+    public int getRequestsPerSecond() {
+        return m_requestsPerSecond;
+    }
+
+    /**
+     * @param requestsPerSecond the maximum number of requests per second shared by all profiles
+     * @throws InvalidSettingsException If the value is not between 1 and {@link #MAX_REQUESTS_PER_SECOND}
+     */
+    public void setRequestsPerSecond(final int requestsPerSecond) throws InvalidSettingsException {
+        if (requestsPerSecond < 1 || requestsPerSecond > MAX_REQUESTS_PER_SECOND) {
+            throw new InvalidSettingsException("Requests per second must be between 1 and "
+                    + MAX_REQUESTS_PER_SECOND);
+        }
+        m_requestsPerSecond = requestsPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(final NodeSettingsWO settings) {
+        super.save(settings);
+        settings.addString(CFG_PROFILE_COLUMN, m_profileColumn);
+        settings.addInt(CFG_PARALLEL_PROFILES, m_parallelProfiles);
+        settings.addInt(CFG_REQUESTS_PER_SECOND, m_requestsPerSecond);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void loadInModel(final NodeSettingsRO settings) throws InvalidSettingsException {
+        super.loadInModel(settings);
+        m_profileColumn = settings.getString(CFG_PROFILE_COLUMN);
+        setParallelProfiles(settings.getInt(CFG_PARALLEL_PROFILES));
+        setRequestsPerSecond(settings.getInt(CFG_REQUESTS_PER_SECOND));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void loadInDialog(final NodeSettingsRO settings) {
+        super.loadInDialog(settings);
+        m_profileColumn = settings.getString(CFG_PROFILE_COLUMN, "");
+        m_parallelProfiles = Math.max(1, Math.min(MAX_PARALLEL_PROFILES, settings.getInt(CFG_PARALLEL_PROFILES, 4)));
+        m_requestsPerSecond =
+                Math.max(1, Math.min(MAX_REQUESTS_PER_SECOND, settings.getInt(CFG_REQUESTS_PER_SECOND, 10)));
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.pg.google.api.analytics.multiprofile.node;
+
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.StringValue;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NotConfigurableException;
+import org.knime.core.node.port.PortObjectSpec;
+
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
+import com.pg.google.api.analytics.connector.node.GoogleAnalyticsConnectorConfiguration;
+import com.pg.google.api.analytics.query.node.GoogleAnalyticsQueryConfiguration;
+import com.pg.google.api.analytics.query.node.GoogleAnalyticsQueryDialog;
+import com.pg.google.api.connector.data.GoogleApiConnectionPortObjectSpec;
+
+/**
+ * The dialog of the GoogleAnalyticsMultiProfileQuery node.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public class GoogleAnalyticsMultiProfileQueryDialog extends GoogleAnalyticsQueryDialog {
+
+    private JComboBox<String> m_profileColumn;
+
+    private JSpinner m_parallelProfiles;
+
+    private JSpinner m_requestsPerSecond;
+
+    // Connection created for listing segments and columns, released when the dialog is closed
+    private GoogleAnalyticsConnection m_connection;
+
+    /**
+     * Constructor creating the dialogs content.
+     */
+    public GoogleAnalyticsMultiProfileQueryDialog() {
+        super();
+        // Each execution queries the profiles of the input table, there is no previous result to continue
+        removeTab(INCREMENTAL_TAB);
+        addTab("Profiles", createProfilesPanel());
+    }
+
+    /**
+     * @return The panel with the profile settings
+     */
+    private JComponent createProfilesPanel() {
+        m_profileColumn = new JComboBox<String>();
+        m_parallelProfiles =
+                new JSpinner(new SpinnerNumberModel(4, 1,
+                        GoogleAnalyticsMultiProfileQueryConfiguration.MAX_PARALLEL_PROFILES, 1));
+        m_requestsPerSecond =
+                new JSpinner(new SpinnerNumberModel(10, 1,
+                        GoogleAnalyticsMultiProfileQueryConfiguration.MAX_REQUESTS_PER_SECOND, 1));
+        JPanel panel = new JPanel();
+        panel.setLayout(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.NORTHWEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 1;
+        gbc.weighty = 0;
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        panel.add(new JLabel("Profile ID column:"), gbc);
+        gbc.gridy++;
+        panel.add(m_profileColumn, gbc);
+        gbc.gridy++;
+        panel.add(new JLabel("Parallel profiles:"), gbc);
+        gbc.gridy++;
+        panel.add(m_parallelProfiles, gbc);
+        gbc.gridy++;
+        panel.add(new JLabel("Requests per second:"), gbc);
+        gbc.gridy++;
+        panel.add(m_requestsPerSecond, gbc);
+        gbc.gridy++;
+        gbc.weighty = 1;
+        panel.add(new JPanel(), gbc);
+        return panel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected GoogleAnalyticsQueryConfiguration createConfiguration() throws InvalidSettingsException {
+        GoogleAnalyticsMultiProfileQueryConfiguration config = new GoogleAnalyticsMultiProfileQueryConfiguration();
+        Object profileColumn = m_profileColumn.getSelectedItem();
+        if (profileColumn == null) {
+            throw new InvalidSettingsException("No profile ID column selected");
+        }
+        config.setProfileColumn(profileColumn.toString());
+        config.setParallelProfiles((Integer)m_parallelProfiles.getValue());
+        config.setRequestsPerSecond((Integer)m_requestsPerSecond.getValue());
+        return config;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected GoogleAnalyticsConnection getConnection(final PortObjectSpec[] specs) {
+        GoogleApiConnectionPortObjectSpec spec = (GoogleApiConnectionPortObjectSpec)specs[0];
+        if (spec == null || spec.getGoogleApiConnection() == null) {
+            return null;
+        }
+        releaseConnection();
+        // The profile is only needed for queries, listing segments and columns works without it
+        m_connection = new GoogleAnalyticsConnection(spec.getGoogleApiConnection(),
+                GoogleAnalyticsConnectorConfiguration.APPLICATION_NAME, null, null);
+        return m_connection;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onClose() {
+        releaseConnection();
+    }
+
+    private void releaseConnection() {
+        if (m_connection != null) {
+            m_connection.release();
+            m_connection = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadSettingsFrom(final NodeSettingsRO settings, final PortObjectSpec[] specs)
+            throws NotConfigurableException {
+        DataTableSpec tableSpec = (DataTableSpec)specs[1];
+        m_profileColumn.removeAllItems();
+        if (tableSpec != null) {
+            for (DataColumnSpec column : tableSpec) {
+                if (column.getType().isCompatible(StringValue.class)) {
+                    m_profileColumn.addItem(column.getName());
+                }
+            }
+        }
+        if (m_profileColumn.getItemCount() == 0) {
+            throw new NotConfigurableException("The input table has no string column holding profile IDs");
+        }
+        super.loadSettingsFrom(settings, specs);
+        GoogleAnalyticsMultiProfileQueryConfiguration config = new GoogleAnalyticsMultiProfileQueryConfiguration();
+        config.loadInDialog(settings);
+        if (!config.getProfileColumn().isEmpty()) {
+            m_profileColumn.setSelectedItem(config.getProfileColumn());
+        }
+        m_parallelProfiles.setValue(config.getParallelProfiles());
+        m_requestsPerSecond.setValue(config.getRequestsPerSecond());
+    }
+
+}
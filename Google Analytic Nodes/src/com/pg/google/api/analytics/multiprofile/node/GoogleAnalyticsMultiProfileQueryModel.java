@@ -0,0 +1,223 @@
+package com.pg.google.api.analytics.multiprofile.node;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.StringValue;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeLogger;
+import org.knime.core.node.NodeModel;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.port.PortObject;
+import org.knime.core.node.port.PortObjectSpec;
+import org.knime.core.node.port.PortType;
+
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
+import com.pg.google.api.analytics.connector.data.RateLimiter;
+import com.pg.google.api.analytics.connector.node.GoogleAnalyticsConnectorConfiguration;
+import com.pg.google.api.analytics.query.node.GoogleAnalyticsQueryExecutor;
+import com.pg.google.api.analytics.query.node.GoogleAnalyticsQueryExecutor.TableAppender;
+import com.pg.google.api.connector.data.GoogleApiConnection;
+import com.pg.google.api.connector.data.GoogleApiConnectionPortObject;
+
+/**
+ * Runs the same query against every profile of the input table and concatenates the results.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public class GoogleAnalyticsMultiProfileQueryModel extends NodeModel {
+
+    private GoogleAnalyticsMultiProfileQueryConfiguration configuration =
+            new GoogleAnalyticsMultiProfileQueryConfiguration();
+
+    protected static final NodeLogger LOGGER = NodeLogger.getLogger(GoogleAnalyticsMultiProfileQueryModel.class);
+
+    /**
+     * Constructor of the node model.
+     */
+    protected GoogleAnalyticsMultiProfileQueryModel() {
+        super(new PortType[]{GoogleApiConnectionPortObject.TYPE, BufferedDataTable.TYPE},
+                new PortType[]{BufferedDataTable.TYPE});
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObject[] execute(PortObject[] inObjects, final ExecutionContext exec) throws Exception {
+        final GoogleApiConnection apiConnection =
+                ((GoogleApiConnectionPortObject)inObjects[0]).getGoogleApiConnection();
+        List<String> profileIds = getProfileIds((BufferedDataTable)inObjects[1]);
+        if (profileIds.isEmpty()) {
+            throw new Exception("The input table contains no profile IDs");
+        }
+        LOGGER.info("Querying " + profileIds.size() + " profiles");
+
+        final GoogleAnalyticsQueryExecutor queryExecutor = new GoogleAnalyticsQueryExecutor(configuration);
+        // All profiles share the quota of the same user, so they share one request rate
+        final RateLimiter rateLimiter = new RateLimiter(configuration.getRequestsPerSecond());
+        final AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(configuration.getParallelProfiles(), profileIds.size()),
+                    GoogleAnalyticsConnection.createThreadFactory("GA-Query-Profile"));
+        try {
+            List<Future<BufferedDataTable>> results = new ArrayList<Future<BufferedDataTable>>(profileIds.size());
+            for (final String profileId : profileIds) {
+                results.add(executor.submit(new Callable<BufferedDataTable>() {
+                    @Override
+                    public BufferedDataTable call() throws Exception {
+                        GoogleAnalyticsConnection connection =
+                                new GoogleAnalyticsConnection(apiConnection,
+                                        GoogleAnalyticsConnectorConfiguration.APPLICATION_NAME, profileId, null);
+                        connection.setRateLimiter(rateLimiter);
+                        try {
+                            return queryExecutor.execute(connection, exec, false);
+                        } catch (CanceledExecutionException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            LOGGER.warn("Query of profile " + profileId + " failed: " + e.getMessage(), e);
+                            failed.incrementAndGet();
+                            return null;
+                        } finally {
+                            connection.release();
+                        }
+                    }
+                }));
+            }
+            TableAppender appender = new TableAppender(exec);
+            for (int i = 0; i < results.size(); i++) {
+                exec.setProgress((double)i / results.size(), "Querying profile " + profileIds.get(i) + " ("
+                    + (i + 1) + " of " + results.size() + ")");
+                BufferedDataTable table = GoogleAnalyticsQueryExecutor.await(results.get(i), exec);
+                if (table != null) {
+                    appender.append(table);
+                }
+            }
+            BufferedDataTable table = appender.close();
+            if (table == null) {
+                throw new Exception("The query failed for all " + profileIds.size() + " profiles");
+            }
+            if (failed.get() > 0) {
+                setWarningMessage("The query failed for " + failed.get() + " of " + profileIds.size()
+                    + " profiles, see the log for details");
+            }
+            return new PortObject[]{table};
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param table The input table
+     * @return The distinct profile IDs of the configured column without the "ga:" prefix, in input order
+     */
+    private List<String> getProfileIds(final BufferedDataTable table) {
+        int index = table.getDataTableSpec().findColumnIndex(configuration.getProfileColumn());
+        Set<String> profileIds = new LinkedHashSet<String>();
+        for (DataRow row : table) {
+            DataCell cell = row.getCell(index);
+            if (cell.isMissing()) {
+                continue;
+            }
+            String profileId = ((StringValue)cell).getStringValue().trim();
+            if (profileId.startsWith("ga:")) {
+                profileId = profileId.substring(3);
+            }
+            if (!profileId.isEmpty()) {
+                profileIds.add(profileId);
+            }
+        }
+        return new ArrayList<String>(profileIds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObjectSpec[] configure(PortObjectSpec[] inSpecs) throws InvalidSettingsException {
+        DataTableSpec tableSpec = (DataTableSpec)inSpecs[1];
+        if (tableSpec != null) {
+            int index = tableSpec.findColumnIndex(configuration.getProfileColumn());
+            if (index < 0) {
+                throw new InvalidSettingsException("Profile ID column \"" + configuration.getProfileColumn()
+                    + "\" not found in the input table");
+            }
+            if (!tableSpec.getColumnSpec(index).getType().isCompatible(StringValue.class)) {
+                throw new InvalidSettingsException("Profile ID column \"" + configuration.getProfileColumn()
+                    + "\" is not a string column");
+            }
+        }
+        return new PortObjectSpec[]{null};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadInternals(File nodeInternDir, ExecutionMonitor exec) throws IOException,
+            CanceledExecutionException {
+        // not used
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void saveInternals(File nodeInternDir, ExecutionMonitor exec) throws IOException,
+            CanceledExecutionException {
+        // not used
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void saveSettingsTo(NodeSettingsWO settings) {
+        configuration.save(settings);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void validateSettings(NodeSettingsRO settings) throws InvalidSettingsException {
+        GoogleAnalyticsMultiProfileQueryConfiguration config = new GoogleAnalyticsMultiProfileQueryConfiguration();
+        config.loadInModel(settings);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadValidatedSettingsFrom(NodeSettingsRO settings) throws InvalidSettingsException {
+        GoogleAnalyticsMultiProfileQueryConfiguration config = new GoogleAnalyticsMultiProfileQueryConfiguration();
+        config.loadInModel(settings);
+        configuration = config;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void reset() {
+        // not used
+    }
+
+}
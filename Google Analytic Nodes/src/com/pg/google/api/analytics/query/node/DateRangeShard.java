@@ -0,0 +1,179 @@
+package com.pg.google.api.analytics.query.node;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * A part of the queried date range. Long ranges are split into shards so every shard can be queried on its own,
+ * which keeps the shards below the sampling thresholds of Google Analytics and lets them be fetched in parallel.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+class DateRangeShard {
+
+    /**
+     * The granularity in which a date range is split.
+     */
+    enum ShardSize {
+        /** The date range is queried as a whole. */
+        NONE,
+        /** One shard per day. */
+        DAY,
+        /** One shard per calendar week, starting on Monday. */
+        WEEK,
+        /** One shard per calendar month. */
+        MONTH;
+
+        /**
+         * @return The next finer granularity used to re-split a sampled shard or <code>null</code> if there is none
+         */
+        ShardSize finer() {
+            switch (this) {
+                case MONTH:
+                    return WEEK;
+                case WEEK:
+                    return DAY;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final String m_startDate;
+
+    private final String m_endDate;
+
+    private final ShardSize m_size;
+
+    private DateRangeShard(final String startDate, final String endDate, final ShardSize size) {
+        m_startDate = startDate;
+        m_endDate = endDate;
+        m_size = size;
+    }
+
+    /**
+     * @return the first day of this shard in the format YYYY-MM-DD
+     */
+    String getStartDate() {
+        return m_startDate;
+    }
+
+    /**
+     * @return the last day of this shard in the format YYYY-MM-DD
+     */
+    String getEndDate() {
+        return m_endDate;
+    }
+
+    /**
+     * @return true if this shard covers more than one day and can be split into smaller shards
+     */
+    boolean isSplittable() {
+        return m_size.finer() != null && !m_startDate.equals(m_endDate);
+    }
+
+    /**
+     * @return This shard split into shards of the next finer granularity
+     * @throws ParseException If the dates of this shard are invalid
+     */
+    List<DateRangeShard> split() throws ParseException {
+        return split(m_startDate, m_endDate, m_size.finer());
+    }
+
+    /**
+     * @param startDate The first day of the range in the format YYYY-MM-DD
+     * @param endDate The last day of the range in the format YYYY-MM-DD
+     * @param size The granularity of the shards
+     * @return The shards covering the range in chronological order
+     * @throws ParseException If one of the dates is invalid
+     */
+    static List<DateRangeShard> split(final String startDate, final String endDate, final ShardSize size)
+            throws ParseException {
+        List<DateRangeShard> shards = new ArrayList<DateRangeShard>();
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        Calendar current = new GregorianCalendar();
+        current.setTime(format.parse(startDate));
+        Calendar end = new GregorianCalendar();
+        end.setTime(format.parse(endDate));
+        if (size == ShardSize.NONE || current.after(end)) {
+            shards.add(new DateRangeShard(startDate, endDate, size));
+            return shards;
+        }
+        while (!current.after(end)) {
+            Calendar shardEnd = (Calendar)current.clone();
+            if (size == ShardSize.WEEK) {
+                // Weeks end on Sunday, so the shards and their cache entries stay the same when the start date moves
+                shardEnd.add(Calendar.DAY_OF_MONTH, (Calendar.SUNDAY - shardEnd.get(Calendar.DAY_OF_WEEK) + 7) % 7);
+            } else if (size == ShardSize.MONTH) {
+                shardEnd.set(Calendar.DAY_OF_MONTH, shardEnd.getActualMaximum(Calendar.DAY_OF_MONTH));
+            }
+            if (shardEnd.after(end)) {
+                shardEnd = end;
+            }
+            shards.add(new DateRangeShard(format.format(current.getTime()), format.format(shardEnd.getTime()), size));
+            current = (Calendar)shardEnd.clone();
+            current.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return shards;
+    }
+
+    /**
+     * Splits a range into the parts it is cached in. Calendar months whose data is final are cached as a whole, all
+     * other days on their own. As the parts do not depend on the start and end of the range, moving the range only
+     * leaves the days at its ends to be fetched.
+     * 
+     * @param startDate The first day of the range in the format YYYY-MM-DD
+     * @param endDate The last day of the range in the format YYYY-MM-DD
+     * @return The parts covering the range in chronological order
+     * @throws ParseException If one of the dates is invalid
+     */
+    static List<DateRangeShard> partition(final String startDate, final String endDate) throws ParseException {
+        List<DateRangeShard> partitions = new ArrayList<DateRangeShard>();
+        for (DateRangeShard month : split(startDate, endDate, ShardSize.MONTH)) {
+            if (month.isWholeMonth() && ResultCache.isSettled(month.getEndDate())) {
+                partitions.add(month);
+            } else {
+                partitions.addAll(split(month.getStartDate(), month.getEndDate(), ShardSize.DAY));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * @return true if this shard covers a calendar month from its first to its last day
+     * @throws ParseException If the dates of this shard are invalid
+     */
+    private boolean isWholeMonth() throws ParseException {
+        if (m_size != ShardSize.MONTH || !m_startDate.endsWith("-01")) {
+            return false;
+        }
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        Calendar end = new GregorianCalendar();
+        end.setTime(format.parse(m_endDate));
+        return end.get(Calendar.DAY_OF_MONTH) == end.getActualMaximum(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * @param date A day in the format YYYY-MM-DD
+     * @return true if the day is part of this shard
+     */
+    boolean contains(final String date) {
+        return m_startDate.compareTo(date) <= 0 && date.compareTo(m_endDate) <= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return m_startDate + " to " + m_endDate;
+    }
+
+}
@@ -5,6 +5,7 @@ package com.pg.google.api.analytics.query.node;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
@@ -13,6 +14,9 @@ import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
+import com.pg.google.api.analytics.query.node.DateRangeShard.ShardSize;
+
 public class GoogleAnalyticsQueryConfiguration {
 
     private static final DateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd");
@@ -31,6 +35,40 @@ public class GoogleAnalyticsQueryConfiguration {
 
     private static final String CFG_END_DATE = "end-date";
 
+    private static final String CFG_PARALLEL_REQUESTS = "parallel-requests";
+
+    private static final String CFG_PAGE_SIZE = "page-size";
+
+    private static final String CFG_AUTO_PAGE_SIZE = "auto-page-size";
+
+    private static final String CFG_SHARD_SIZE = "shard-size";
+
+    private static final String CFG_USE_CACHE = "use-result-cache";
+
+    private static final String CFG_INCREMENTAL = "incremental";
+
+    private static final String CFG_REFETCH_DAYS = "refetch-days";
+
+    /**
+     * Rows per request used before the page size became configurable.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 5000;
+
+    /**
+     * Upper bound for concurrently requested result pages, Google allows 10 queries per second per profile.
+     */
+    public static final int MAX_PARALLEL_REQUESTS = 10;
+
+    /**
+     * Days fetched again in incremental mode unless configured otherwise, Google Analytics may still change them.
+     */
+    public static final int DEFAULT_REFETCH_DAYS = 3;
+
+    /**
+     * Upper bound for the days fetched again in incremental mode.
+     */
+    public static final int MAX_REFETCH_DAYS = 30;
+
     private String[] m_dimensions = new String[0];
 
     private String[] m_metrics = new String[0];
@@ -45,6 +83,19 @@ public class GoogleAnalyticsQueryConfiguration {
 
     private String m_endDate = "";
 
+    private int m_parallelRequests = 1;
+
+    private int m_pageSize = DEFAULT_PAGE_SIZE;
+
+    private boolean m_autoPageSize = false;
+
+    private ShardSize m_shardSize = ShardSize.NONE;
+
+    private boolean m_useCache = true;
+
+    private boolean m_incremental = false;
+
+    private int m_refetchDays = DEFAULT_REFETCH_DAYS;
     
 
     /**
@@ -103,15 +154,12 @@ public class GoogleAnalyticsQueryConfiguration {
 
     /**
      * @param metrics the metrics to set
-     * @throws InvalidSettingsException If the metrics exceed the maximum of 10 or no metric is given
+     * @throws InvalidSettingsException If no metric is given
      */
     public void setMetrics(final String[] metrics) throws InvalidSettingsException {
         if (metrics.length < 1) {
             throw new InvalidSettingsException("At least one metric is required");
         }
-        if (metrics.length > 10) {
-            throw new InvalidSettingsException("A single request is limited to a maximum of 10 metrics");
-        }
         m_metrics = metrics;
     }
 
@@ -193,7 +241,123 @@ public class GoogleAnalyticsQueryConfiguration {
         m_endDate = endDate;
     }
 
+    /**
+     * @return the maximum number of result pages that are requested at the same time
+     */
+    public int getParallelRequests() {
+        return m_parallelRequests;
+    }
+
+    /**
+     * @param parallelRequests the maximum number of result pages that are requested at the same time
+     * @throws InvalidSettingsException If the value is not between 1 and {@link #MAX_PARALLEL_REQUESTS}
+     */
+    public void setParallelRequests(final int parallelRequests) throws InvalidSettingsException {
+        if (parallelRequests < 1 || parallelRequests > MAX_PARALLEL_REQUESTS) {
+            throw new InvalidSettingsException("Parallel requests must be between 1 and " + MAX_PARALLEL_REQUESTS);
+        }
+        m_parallelRequests = parallelRequests;
+    }
 
+    /**
+     * @return the number of rows requested per page
+     */
+    public int getPageSize() {
+        return m_pageSize;
+    }
+
+    /**
+     * @param pageSize the number of rows requested per page
+     * @throws InvalidSettingsException If the page size is not between 1 and 10,000
+     */
+    public void setPageSize(final int pageSize) throws InvalidSettingsException {
+        if (pageSize < 1 || pageSize > GoogleAnalyticsConnection.MAX_PAGE_SIZE) {
+            throw new InvalidSettingsException("The page size must be between 1 and "
+                    + GoogleAnalyticsConnection.MAX_PAGE_SIZE);
+        }
+        m_pageSize = pageSize;
+    }
+
+    /**
+     * @return true if the page size is tuned automatically during execution
+     */
+    public boolean isAutoPageSize() {
+        return m_autoPageSize;
+    }
+
+    /**
+     * @param autoPageSize true if the page size should be tuned automatically during execution
+     */
+    public void setAutoPageSize(final boolean autoPageSize) {
+        m_autoPageSize = autoPageSize;
+    }
+
+    /**
+     * @return The page size to hand to the connection, {@link GoogleAnalyticsConnection#PAGE_SIZE_AUTO} in auto mode
+     */
+    public int getQueryPageSize() {
+        return m_autoPageSize ? GoogleAnalyticsConnection.PAGE_SIZE_AUTO : m_pageSize;
+    }
+
+    /**
+     * @return the granularity in which the date range is split into separately queried shards
+     */
+    ShardSize getShardSize() {
+        return m_shardSize;
+    }
+
+    /**
+     * @param shardSize the granularity in which the date range is split into separately queried shards
+     */
+    void setShardSize(final ShardSize shardSize) {
+        m_shardSize = shardSize;
+    }
+
+    /**
+     * @return true if results of past days are read from and written to the local result cache
+     */
+    public boolean isUseCache() {
+        return m_useCache;
+    }
+
+    /**
+     * @param useCache true if results of past days should be read from and written to the local result cache
+     */
+    public void setUseCache(final boolean useCache) {
+        m_useCache = useCache;
+    }
+
+    /**
+     * @return true if only the days after the last execution (and the days fetched again) are queried
+     */
+    public boolean isIncremental() {
+        return m_incremental;
+    }
+
+    /**
+     * @param incremental true if only the days after the last execution (and the days fetched again) should be queried
+     */
+    public void setIncremental(final boolean incremental) {
+        m_incremental = incremental;
+    }
+
+    /**
+     * @return the number of days up to the last fetched day that are fetched again in incremental mode
+     */
+    public int getRefetchDays() {
+        return m_refetchDays;
+    }
+
+    /**
+     * @param refetchDays the number of days up to the last fetched day that are fetched again in incremental mode
+     * @throws InvalidSettingsException If the number is negative or greater than {@link #MAX_REFETCH_DAYS}
+     */
+    public void setRefetchDays(final int refetchDays) throws InvalidSettingsException {
+        if (refetchDays < 0 || refetchDays > MAX_REFETCH_DAYS) {
+            throw new InvalidSettingsException("Days fetched again must be between 0 and " + MAX_REFETCH_DAYS);
+        }
+        m_refetchDays = refetchDays;
+    }
 
     /**
      * @param settings The settings object to save in
@@ -206,6 +370,13 @@ public class GoogleAnalyticsQueryConfiguration {
         settings.addString(CFG_SORT, m_sort);
         settings.addString(CFG_START_DATE, m_startDate);
         settings.addString(CFG_END_DATE, m_endDate);
+        settings.addInt(CFG_PARALLEL_REQUESTS, m_parallelRequests);
+        settings.addInt(CFG_PAGE_SIZE, m_pageSize);
+        settings.addBoolean(CFG_AUTO_PAGE_SIZE, m_autoPageSize);
+        settings.addString(CFG_SHARD_SIZE, m_shardSize.name());
+        settings.addBoolean(CFG_USE_CACHE, m_useCache);
+        settings.addBoolean(CFG_INCREMENTAL, m_incremental);
+        settings.addInt(CFG_REFETCH_DAYS, m_refetchDays);
         
     }
 
@@ -221,6 +392,22 @@ public class GoogleAnalyticsQueryConfiguration {
         m_sort = settings.getString(CFG_SORT);
         m_startDate = settings.getString(CFG_START_DATE);
         m_endDate = settings.getString(CFG_END_DATE);
+        // Added later, older workflows fetch sequentially
+        setParallelRequests(settings.getInt(CFG_PARALLEL_REQUESTS, 1));
+        setPageSize(settings.getInt(CFG_PAGE_SIZE, DEFAULT_PAGE_SIZE));
+        m_autoPageSize = settings.getBoolean(CFG_AUTO_PAGE_SIZE, false);
+        try {
+            m_shardSize = ShardSize.valueOf(settings.getString(CFG_SHARD_SIZE, ShardSize.NONE.name()));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidSettingsException("Unknown shard size: " + settings.getString(CFG_SHARD_SIZE, ""));
+        }
+        // Added later, older workflows always fetch
+        m_useCache = settings.getBoolean(CFG_USE_CACHE, false);
+        m_incremental = settings.getBoolean(CFG_INCREMENTAL, false);
+        setRefetchDays(settings.getInt(CFG_REFETCH_DAYS, DEFAULT_REFETCH_DAYS));
+        if (m_incremental && !Arrays.asList(m_dimensions).contains("date")) {
+            throw new InvalidSettingsException("Incremental mode needs the dimension date");
+        }
         
     }
 
@@ -243,6 +430,18 @@ public class GoogleAnalyticsQueryConfiguration {
             calendar.add(Calendar.DAY_OF_MONTH, -7);
             m_startDate = FORMAT.format(calendar.getTime());
         }
+        m_parallelRequests = Math.max(1, Math.min(MAX_PARALLEL_REQUESTS, settings.getInt(CFG_PARALLEL_REQUESTS, 1)));
+        m_pageSize = Math.max(1, Math.min(GoogleAnalyticsConnection.MAX_PAGE_SIZE,
+                settings.getInt(CFG_PAGE_SIZE, DEFAULT_PAGE_SIZE)));
+        m_autoPageSize = settings.getBoolean(CFG_AUTO_PAGE_SIZE, false);
+        try {
+            m_shardSize = ShardSize.valueOf(settings.getString(CFG_SHARD_SIZE, ShardSize.NONE.name()));
+        } catch (IllegalArgumentException e) {
+            m_shardSize = ShardSize.NONE;
+        }
+        m_useCache = settings.getBoolean(CFG_USE_CACHE, false);
+        m_incremental = settings.getBoolean(CFG_INCREMENTAL, false);
+        m_refetchDays = Math.max(0, Math.min(MAX_REFETCH_DAYS, settings.getInt(CFG_REFETCH_DAYS, DEFAULT_REFETCH_DAYS)));
         
     }
 
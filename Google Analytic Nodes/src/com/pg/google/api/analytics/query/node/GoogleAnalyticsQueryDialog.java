@@ -69,6 +69,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
@@ -80,6 +81,7 @@ import javax.swing.JSpinner;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SpinnerDateModel;
+import javax.swing.SpinnerNumberModel;
 
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeDialogPane;
@@ -95,6 +97,7 @@ import com.google.api.services.analytics.model.Segment;
 import com.google.api.services.analytics.model.Segments;
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnectionPortObjectSpec;
+import com.pg.google.api.analytics.query.node.DateRangeShard.ShardSize;
 
 /**
  * The dialog to the GoogleAnalyticsConnector node.
@@ -134,11 +137,30 @@ public class GoogleAnalyticsQueryDialog extends NodeDialogPane {
 
     private JSpinner m_endDate;
 
+    private JSpinner m_parallelRequests;
+
+    private JSpinner m_pageSize;
+
+    private JCheckBox m_autoPageSize;
+
+    private JComboBox<String> m_shardSize;
+
+    private JCheckBox m_useCache;
+
+    private JCheckBox m_incremental;
+
+    private JSpinner m_refetchDays;
+
     private JComponent m_columnSelectionPanel;
 
     private JLabel m_warning;
 
     private static final NodeLogger LOGGER = NodeLogger.getLogger(GoogleAnalyticsQueryDialog.class);
+
+    /**
+     * Title of the tab with the incremental mode settings.
+     */
+    protected static final String INCREMENTAL_TAB = "Incremental";
     
     /**
      * Constructor creating the dialogs content.
@@ -194,6 +216,92 @@ public class GoogleAnalyticsQueryDialog extends NodeDialogPane {
         gbc.gridy++;
         
         addTab("Settings", panel);
+        addTab("Advanced", createAdvancedPanel());
+        addTab(INCREMENTAL_TAB, createIncrementalPanel());
+    }
+
+    /**
+     * @return The panel with the advanced execution settings
+     */
+    private JComponent createAdvancedPanel() {
+        m_parallelRequests =
+                new JSpinner(new SpinnerNumberModel(1, 1, GoogleAnalyticsQueryConfiguration.MAX_PARALLEL_REQUESTS, 1));
+        m_pageSize =
+                new JSpinner(new SpinnerNumberModel(GoogleAnalyticsQueryConfiguration.DEFAULT_PAGE_SIZE, 1,
+                        GoogleAnalyticsConnection.MAX_PAGE_SIZE, 1000));
+        m_shardSize = new JComboBox<String>(new String[]{"None", "Day", "Week", "Month"});
+        m_useCache = new JCheckBox("Cache results of past days");
+        m_autoPageSize = new JCheckBox("Tune page size automatically");
+        m_autoPageSize.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                m_pageSize.setEnabled(!m_autoPageSize.isSelected());
+            }
+        });
+        JPanel panel = new JPanel();
+        panel.setLayout(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.NORTHWEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 1;
+        gbc.weighty = 0;
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        panel.add(new JLabel("Parallel requests:"), gbc);
+        gbc.gridy++;
+        panel.add(m_parallelRequests, gbc);
+        gbc.gridy++;
+        panel.add(new JLabel("Page size:"), gbc);
+        gbc.gridy++;
+        panel.add(m_pageSize, gbc);
+        gbc.gridy++;
+        panel.add(m_autoPageSize, gbc);
+        gbc.gridy++;
+        panel.add(new JLabel("Split date range into:"), gbc);
+        gbc.gridy++;
+        panel.add(m_shardSize, gbc);
+        gbc.gridy++;
+        panel.add(m_useCache, gbc);
+        gbc.gridy++;
+        gbc.weighty = 1;
+        panel.add(new JPanel(), gbc);
+        return panel;
+    }
+
+    /**
+     * @return The panel with the settings of the incremental mode
+     */
+    private JComponent createIncrementalPanel() {
+        m_incremental = new JCheckBox("Only fetch days after the last execution");
+        m_refetchDays =
+                new JSpinner(new SpinnerNumberModel(GoogleAnalyticsQueryConfiguration.DEFAULT_REFETCH_DAYS, 0,
+                        GoogleAnalyticsQueryConfiguration.MAX_REFETCH_DAYS, 1));
+        m_incremental.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                m_refetchDays.setEnabled(m_incremental.isSelected());
+            }
+        });
+        JPanel panel = new JPanel();
+        panel.setLayout(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 5, 5, 5);
+        gbc.anchor = GridBagConstraints.NORTHWEST;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 1;
+        gbc.weighty = 0;
+        gbc.gridx = 0;
+        gbc.gridy = 0;
+        panel.add(m_incremental, gbc);
+        gbc.gridy++;
+        panel.add(new JLabel("Days fetched again:"), gbc);
+        gbc.gridy++;
+        panel.add(m_refetchDays, gbc);
+        gbc.gridy++;
+        gbc.weighty = 1;
+        panel.add(new JPanel(), gbc);
+        return panel;
     }
 
     /**
@@ -551,7 +659,7 @@ public class GoogleAnalyticsQueryDialog extends NodeDialogPane {
      */
     @Override
     protected void saveSettingsTo(NodeSettingsWO settings) throws InvalidSettingsException {
-        GoogleAnalyticsQueryConfiguration config = new GoogleAnalyticsQueryConfiguration();
+        GoogleAnalyticsQueryConfiguration config = createConfiguration();
         String[] dimensions = new String[m_dimensionsModel.getSize()];
         for (int i = 0; i < m_dimensionsModel.getSize(); i++) {
             dimensions[i] = m_dimensionsModel.getElementAt(i);
@@ -571,6 +679,13 @@ public class GoogleAnalyticsQueryDialog extends NodeDialogPane {
         config.setSort(m_sort.getText());
         config.setStartDate(((JSpinner.DefaultEditor)m_startDate.getEditor()).getTextField().getText());
         config.setEndDate(((JSpinner.DefaultEditor)m_endDate.getEditor()).getTextField().getText());
+        config.setParallelRequests((Integer)m_parallelRequests.getValue());
+        config.setPageSize((Integer)m_pageSize.getValue());
+        config.setAutoPageSize(m_autoPageSize.isSelected());
+        config.setShardSize(ShardSize.valueOf(((String)m_shardSize.getSelectedItem()).toUpperCase()));
+        config.setUseCache(m_useCache.isSelected());
+        config.setIncremental(m_incremental.isSelected());
+        config.setRefetchDays((Integer)m_refetchDays.getValue());
         config.save(settings);
     }
 
@@ -584,9 +699,8 @@ public class GoogleAnalyticsQueryDialog extends NodeDialogPane {
         String segment = config.getSegment();
         m_segmentMap = new TreeMap<String, String>();
         try {
-            GoogleAnalyticsConnectionPortObjectSpec spec = (GoogleAnalyticsConnectionPortObjectSpec)specs[0];
-            if (spec != null) {
-                GoogleAnalyticsConnection connection = spec.getGoogleAnalyticsConnection();
+            GoogleAnalyticsConnection connection = getConnection(specs);
+            if (connection != null) {
                 if ( m_segments == null ) {
                 	LOGGER.info("Getting Profile Segments...");
                 	m_segments = connection.getAnalytics().management().segments().list().execute();
@@ -637,9 +751,38 @@ public class GoogleAnalyticsQueryDialog extends NodeDialogPane {
         m_sort.setText(config.getSort());
         ((JSpinner.DefaultEditor)m_startDate.getEditor()).getTextField().setText(config.getStartDate());
         ((JSpinner.DefaultEditor)m_endDate.getEditor()).getTextField().setText(config.getEndDate());
+        m_parallelRequests.setValue(config.getParallelRequests());
+        m_pageSize.setValue(config.getPageSize());
+        m_autoPageSize.setSelected(config.isAutoPageSize());
+        m_pageSize.setEnabled(!config.isAutoPageSize());
+        String shardSize = config.getShardSize().name();
+        m_shardSize.setSelectedItem(shardSize.charAt(0) + shardSize.substring(1).toLowerCase());
+        m_useCache.setSelected(config.isUseCache());
+        m_incremental.setSelected(config.isIncremental());
+        m_refetchDays.setValue(config.getRefetchDays());
+        m_refetchDays.setEnabled(config.isIncremental());
         
     }
 
+    /**
+     * @return A new configuration that the query settings of this dialog are written into, subclasses can add
+     *         their own settings
+     * @throws InvalidSettingsException If the additional settings are invalid
+     */
+    protected GoogleAnalyticsQueryConfiguration createConfiguration() throws InvalidSettingsException {
+        return new GoogleAnalyticsQueryConfiguration();
+    }
+
+    /**
+     * @param specs The input specs of the node
+     * @return The connection used to list the available segments, dimensions and metrics or <code>null</code> if
+     *         no connection is available
+     */
+    protected GoogleAnalyticsConnection getConnection(final PortObjectSpec[] specs) {
+        GoogleAnalyticsConnectionPortObjectSpec spec = (GoogleAnalyticsConnectionPortObjectSpec)specs[0];
+        return spec != null ? spec.getGoogleAnalyticsConnection() : null;
+    }
+
     /**
      * @param connection The connection used to acquire the etag
      * @return The current etag for the Google Analytics Metadata
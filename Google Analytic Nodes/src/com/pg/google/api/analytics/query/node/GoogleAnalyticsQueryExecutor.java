@@ -0,0 +1,602 @@
+package com.pg.google.api.analytics.query.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DataType;
+import org.knime.core.data.MissingCell;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.DoubleCell;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.node.BufferedDataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.services.analytics.model.GaData;
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsRowConsumer;
+import com.pg.google.api.analytics.query.node.DateRangeShard.ShardSize;
+
+/**
+ * Executes the query of a {@link GoogleAnalyticsQueryConfiguration} against a profile and writes the result into a
+ * KNIME table.
+ * 
+ * @author Procter & Gamble, eBusiness
+ */
+public class GoogleAnalyticsQueryExecutor {
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(GoogleAnalyticsQueryExecutor.class);
+
+    private final GoogleAnalyticsQueryConfiguration m_config;
+
+    /**
+     * @param config The query to execute
+     */
+    public GoogleAnalyticsQueryExecutor(final GoogleAnalyticsQueryConfiguration config) {
+        m_config = config;
+    }
+
+    /**
+     * @param connection The connection to the profile that is queried
+     * @param exec The execution context used to create the table and check for cancellation
+     * @param reportProgress true to report progress to <code>exec</code>, false if the query is only a part of the
+     *            node's execution
+     * @return The result table
+     * @throws Exception If the query failed or no result was received
+     */
+    public BufferedDataTable execute(final GoogleAnalyticsConnection connection, final ExecutionContext exec,
+            final boolean reportProgress) throws Exception {
+        String cacheKey = getCacheKey(connection);
+        if (cacheKey != null && Arrays.asList(m_config.getDimensions()).contains(IncrementalResult.DATE_COLUMN)) {
+            return executePartitioned(connection, cacheKey, exec, reportProgress);
+        }
+        
+        // Without the date the rows cannot be assigned to days, so only the queried ranges are cached
+        if (cacheKey != null && m_config.getShardSize() == ShardSize.NONE) {
+            BufferedDataTable cached =
+                    ResultCache.getInstance().get(cacheKey, m_config.getStartDate(), m_config.getEndDate(), exec);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BufferedDataTable table =
+                query(connection, cacheKey, m_config.getStartDate(), m_config.getEndDate(), exec, reportProgress);
+        if (cacheKey != null && m_config.getShardSize() == ShardSize.NONE) {
+            ResultCache.getInstance().put(cacheKey, m_config.getStartDate(), m_config.getEndDate(), table, exec);
+        }
+        return table;
+    }
+
+    /**
+     * @param connection The connection to query
+     * @param cacheKey The key of the shards in the result cache or <code>null</code> if they are not cached
+     * @param startDate The first day to query
+     * @param endDate The last day to query
+     * @param exec The execution context of the node
+     * @param reportProgress true to report progress to <code>exec</code>
+     * @return The result of the range, split into shards if configured
+     */
+    private BufferedDataTable query(final GoogleAnalyticsConnection connection, final String cacheKey,
+            final String startDate, final String endDate, final ExecutionContext exec, final boolean reportProgress)
+            throws Exception {
+        if (m_config.getShardSize() != ShardSize.NONE) {
+            return executeSharded(connection, cacheKey, startDate, endDate, exec, reportProgress);
+        }
+        
+        ContainerRowConsumer consumer = new ContainerRowConsumer(exec, false);
+        createQuery(connection, m_config.getParallelRequests()).query(startDate, endDate, consumer,
+            reportProgress ? exec : null, exec);
+        
+        if (consumer.getContainer() == null) {
+            throw new Exception("Unable to retrieve result data model");
+        }
+        
+        BufferedDataContainer outContainer = consumer.getContainer();
+        outContainer.close();
+        return outContainer.getTable();
+    }
+
+    /**
+     * Caches the result in calendar aligned parts, see {@link DateRangeShard#partition(String, String)}, no matter
+     * how the range is split for querying. Parts found in the {@link ResultCache} are read from disk, consecutive
+     * missing parts are queried together and their rows are assigned to the parts by their date.
+     * 
+     * @param connection The connection to query
+     * @param cacheKey The key of the query in the result cache
+     * @param exec The execution context of the node
+     * @param reportProgress true to report progress to <code>exec</code>
+     * @return The parts of the range in chronological order
+     */
+    private BufferedDataTable executePartitioned(final GoogleAnalyticsConnection connection, final String cacheKey,
+            final ExecutionContext exec, final boolean reportProgress) throws Exception {
+        ResultCache cache = ResultCache.getInstance();
+        List<DateRangeShard> partitions = DateRangeShard.partition(m_config.getStartDate(), m_config.getEndDate());
+        BufferedDataTable[] tables = new BufferedDataTable[partitions.size()];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = cache.get(cacheKey, partitions.get(i).getStartDate(), partitions.get(i).getEndDate(), exec);
+        }
+        for (int first = 0; first < tables.length; first++) {
+            if (tables[first] != null) {
+                continue;
+            }
+            int last = first;
+            while (last + 1 < tables.length && tables[last + 1] == null) {
+                last++;
+            }
+            List<DateRangeShard> missing = partitions.subList(first, last + 1);
+            String startDate = missing.get(0).getStartDate();
+            String endDate = missing.get(missing.size() - 1).getEndDate();
+            LOGGER.debug("Fetching " + startDate + " to " + endDate + ", which is not cached");
+            BufferedDataTable[] parts =
+                    splitByDate(query(connection, null, startDate, endDate, exec, reportProgress), missing, exec);
+            for (int i = 0; i < parts.length; i++) {
+                cache.put(cacheKey, missing.get(i).getStartDate(), missing.get(i).getEndDate(), parts[i], exec);
+                tables[first + i] = parts[i];
+            }
+            first = last;
+        }
+        TableAppender appender = new TableAppender(exec);
+        for (BufferedDataTable table : tables) {
+            appender.append(table);
+        }
+        return appender.close();
+    }
+
+    /**
+     * @param table A result containing the date dimension
+     * @param partitions The consecutive parts of the range the result was queried for
+     * @param exec The context used to create the tables
+     * @return The rows of every part, empty tables for parts without rows
+     */
+    private static BufferedDataTable[] splitByDate(final BufferedDataTable table,
+            final List<DateRangeShard> partitions, final ExecutionContext exec) throws Exception {
+        int dateColumn = table.getDataTableSpec().findColumnIndex(IncrementalResult.DATE_COLUMN);
+        if (dateColumn < 0) {
+            throw new Exception("The result does not contain the dimension " + IncrementalResult.DATE_COLUMN);
+        }
+        BufferedDataContainer[] containers = new BufferedDataContainer[partitions.size()];
+        for (int i = 0; i < containers.length; i++) {
+            containers[i] = exec.createDataContainer(table.getDataTableSpec());
+        }
+        int rowCount = 0;
+        for (DataRow row : table) {
+            String date = row.getCell(dateColumn).toString();
+            if (date.length() == 8) {
+                date = date.substring(0, 4) + "-" + date.substring(4, 6) + "-" + date.substring(6);
+            }
+            int index = findPartition(partitions, date);
+            if (index < 0) {
+                throw new Exception("Received a row of " + date + ", which is not in the queried date range");
+            }
+            containers[index].addRowToTable(row);
+            if (++rowCount % 10000 == 0) {
+                exec.checkCanceled();
+            }
+        }
+        BufferedDataTable[] tables = new BufferedDataTable[containers.length];
+        for (int i = 0; i < containers.length; i++) {
+            containers[i].close();
+            tables[i] = containers[i].getTable();
+        }
+        return tables;
+    }
+
+    /**
+     * @param partitions Consecutive parts of a range in chronological order
+     * @param date A day in the format YYYY-MM-DD
+     * @return The index of the part containing the day or -1 if it is not in the range
+     */
+    private static int findPartition(final List<DateRangeShard> partitions, final String date) {
+        int low = 0;
+        int high = partitions.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            DateRangeShard partition = partitions.get(middle);
+            if (partition.contains(date)) {
+                return middle;
+            } else if (date.compareTo(partition.getStartDate()) < 0) {
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param connection The connection to the profile that is queried
+     * @return The key of the query in the {@link ResultCache} or <code>null</code> if the cache is not used
+     */
+    private String getCacheKey(final GoogleAnalyticsConnection connection) {
+        if (!m_config.isUseCache()) {
+            return null;
+        }
+        return connection.getQueryKey(m_config.getMetricsWithPrefix(), m_config.getDimensionsWithPrefix(),
+            m_config.getFiltersWithPrefix(), m_config.getSegmentWithPrefix());
+    }
+
+    /**
+     * @param connection The connection to query
+     * @param parallelRequests The number of pages requested at the same time
+     * @return The query of the configured metrics, split into several requests if there are too many metrics
+     */
+    private MetricGroupQuery createQuery(final GoogleAnalyticsConnection connection, final int parallelRequests) {
+        return new MetricGroupQuery(connection, m_config.getMetricsWithPrefix(), m_config.getDimensionsWithPrefix(),
+                m_config.getFiltersWithPrefix(), m_config.getSegmentWithPrefix(), m_config.getQueryPageSize(),
+                parallelRequests);
+    }
+
+    /**
+     * Splits the date range into shards that are queried concurrently. Shards that still contain sampled data are
+     * split further until they are queried per day. The shard tables are merged in chronological order. Shards found
+     * in the {@link ResultCache} are not queried.
+     * 
+     * @param connection The connection to query
+     * @param cacheKey The key of the query in the result cache or <code>null</code> if the shards are not cached
+     * @param startDate The first day of the range
+     * @param endDate The last day of the range
+     * @param exec The execution context of the node
+     * @param reportProgress true to report the merge progress to <code>exec</code>
+     * @return The merged table of all shards
+     */
+    private BufferedDataTable executeSharded(final GoogleAnalyticsConnection connection, final String cacheKey,
+            final String startDate, final String endDate, final ExecutionContext exec, final boolean reportProgress)
+            throws Exception {
+        List<DateRangeShard> shards = DateRangeShard.split(startDate, endDate, m_config.getShardSize());
+        LOGGER.info("Querying " + shards.size() + " shards from " + startDate + " to " + endDate);
+        ExecutorService executor = Executors.newFixedThreadPool(m_config.getParallelRequests(),
+            GoogleAnalyticsConnection.createThreadFactory("GA-Query-Shard"));
+        try {
+            List<Future<ShardResult>> results = submitShards(executor, connection, cacheKey, shards, exec);
+            ShardWriter writer = new ShardWriter(exec, shards.size(), reportProgress);
+            writer.append(results, true);
+            BufferedDataTable table = writer.close();
+            if (table == null) {
+                throw new Exception("Unable to retrieve result data model");
+            }
+            return table;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Future<ShardResult>> submitShards(final ExecutorService executor,
+            final GoogleAnalyticsConnection connection, final String cacheKey, final List<DateRangeShard> shards,
+            final ExecutionContext exec) {
+        List<Future<ShardResult>> results = new ArrayList<Future<ShardResult>>(shards.size());
+        for (final DateRangeShard shard : shards) {
+            results.add(executor.submit(new Callable<ShardResult>() {
+                @Override
+                public ShardResult call() throws Exception {
+                    if (cacheKey != null) {
+                        BufferedDataTable cached = ResultCache.getInstance().get(cacheKey, shard.getStartDate(),
+                            shard.getEndDate(), exec);
+                        if (cached != null) {
+                            return new ShardResult(cached);
+                        }
+                    }
+                    ContainerRowConsumer consumer = new ContainerRowConsumer(exec, shard.isSplittable());
+                    // Pages of a shard are fetched one after the other, the shards themselves run in parallel
+                    createQuery(connection, 1).query(shard.getStartDate(), shard.getEndDate(), consumer, null, exec);
+                    if (consumer.isSampled() && consumer.getContainer() == null) {
+                        LOGGER.info("Shard " + shard + " contains sampled data, splitting it further");
+                        return new ShardResult(submitShards(executor, connection, cacheKey, shard.split(), exec));
+                    }
+                    if (consumer.getContainer() == null) {
+                        return new ShardResult((BufferedDataTable)null);
+                    }
+                    consumer.getContainer().close();
+                    BufferedDataTable table = consumer.getContainer().getTable();
+                    if (cacheKey != null) {
+                        ResultCache.getInstance().put(cacheKey, shard.getStartDate(), shard.getEndDate(), table, exec);
+                    }
+                    return new ShardResult(table);
+                }
+            }));
+        }
+        return results;
+    }
+
+    /**
+     * Result of a single shard, either its table or the results of the shards it was split into.
+     */
+    private static class ShardResult {
+
+        private final BufferedDataTable m_table;
+
+        private final List<Future<ShardResult>> m_children;
+
+        ShardResult(final BufferedDataTable table) {
+            m_table = table;
+            m_children = null;
+        }
+
+        ShardResult(final List<Future<ShardResult>> children) {
+            m_table = null;
+            m_children = children;
+        }
+    }
+
+    /**
+     * Copies the shard tables in chronological order into the output table.
+     */
+    private static class ShardWriter extends TableAppender {
+
+        private final int m_shardCount;
+
+        private final boolean m_reportProgress;
+
+        private int m_finishedShards = 0;
+
+        ShardWriter(final ExecutionContext exec, final int shardCount, final boolean reportProgress) {
+            super(exec);
+            m_shardCount = shardCount;
+            m_reportProgress = reportProgress;
+        }
+
+        /**
+         * @param results The shard results in chronological order
+         * @param topLevel true for the initial shards, false for the shards a sampled shard was split into
+         */
+        void append(final List<Future<ShardResult>> results, final boolean topLevel) throws Exception {
+            for (Future<ShardResult> future : results) {
+                ShardResult result = await(future, getExecutionContext());
+                if (result.m_children != null) {
+                    append(result.m_children, false);
+                } else if (result.m_table != null) {
+                    append(result.m_table);
+                }
+                if (topLevel && m_reportProgress) {
+                    m_finishedShards++;
+                    getExecutionContext().setProgress((double)m_finishedShards / m_shardCount,
+                        "Merged " + getRowCount() + " rows");
+                }
+            }
+        }
+    }
+
+    /**
+     * Concatenates tables with the same spec into a new table, renumbering the row keys.
+     */
+    public static class TableAppender {
+
+        private final ExecutionContext m_exec;
+
+        private BufferedDataContainer m_container;
+
+        private int m_rowIndex = 0;
+
+        /**
+         * @param exec The context used to create the output table
+         */
+        public TableAppender(final ExecutionContext exec) {
+            m_exec = exec;
+        }
+
+        /**
+         * @return The context used to create the output table
+         */
+        protected ExecutionContext getExecutionContext() {
+            return m_exec;
+        }
+
+        /**
+         * @param table The table whose rows are appended, the first table determines the spec of the output
+         * @throws CanceledExecutionException If the execution was canceled while copying
+         */
+        public void append(final BufferedDataTable table) throws CanceledExecutionException {
+            if (m_container == null) {
+                m_container = m_exec.createDataContainer(table.getDataTableSpec());
+            }
+            for (DataRow row : table) {
+                List<DataCell> cells = new ArrayList<DataCell>(row.getNumCells());
+                for (DataCell cell : row) {
+                    cells.add(cell);
+                }
+                m_container.addRowToTable(new DefaultRow("Row" + m_rowIndex++, cells));
+                if (m_rowIndex % 10000 == 0) {
+                    m_exec.checkCanceled();
+                }
+            }
+        }
+
+        /**
+         * @return The number of rows appended so far
+         */
+        public int getRowCount() {
+            return m_rowIndex;
+        }
+
+        /**
+         * @return The concatenated table or <code>null</code> if no table was appended
+         */
+        public BufferedDataTable close() {
+            if (m_container == null) {
+                return null;
+            }
+            m_container.close();
+            return m_container.getTable();
+        }
+    }
+
+    /**
+     * Waits for the result of a concurrently executed task while checking for cancellation of the node.
+     * 
+     * @param future The result to wait for
+     * @param exec The execution context to check for cancellation
+     * @return The result of the task
+     * @throws Exception The exception thrown by the task or a CanceledExecutionException
+     */
+    public static <T> T await(final Future<T> future, final ExecutionMonitor exec) throws Exception {
+        while (true) {
+            exec.checkCanceled();
+            try {
+                return future.get(500, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // still running, check for cancellation again
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception)e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the result rows into a data container while the pages are parsed, creating the cells directly from the
+     * raw values. The container is created with the spec of the first response.
+     */
+    private static class ContainerRowConsumer implements GoogleAnalyticsRowConsumer {
+
+        // Account, property, profile id, profile name and sampling flag precede the query columns
+        private static final int PROFILE_COLUMNS = 5;
+
+        private final ExecutionContext m_exec;
+
+        private final boolean m_rejectSampled;
+
+        private BufferedDataContainer m_container;
+
+        private DataType[] m_types;
+
+        private DataCell[] m_cells;
+
+        private boolean m_sampled = false;
+
+        private int m_rowIndex = 0;
+
+        /**
+         * @param exec The context used to create the container
+         * @param rejectSampled If true no rows are fetched when the first response contains sampled data
+         */
+        ContainerRowConsumer(final ExecutionContext exec, final boolean rejectSampled) {
+            m_exec = exec;
+            m_rejectSampled = rejectSampled;
+        }
+
+        /**
+         * @return The container holding all consumed rows or <code>null</code> if no response was received or it was
+         *         rejected
+         */
+        BufferedDataContainer getContainer() {
+            return m_container;
+        }
+
+        /**
+         * @return true if the first response contained sampled data
+         */
+        boolean isSampled() {
+            return m_sampled;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean start(final GaData dataModel) {
+            m_sampled = Boolean.TRUE.equals(dataModel.getContainsSampledData());
+            if (m_sampled && m_rejectSampled) {
+                return false;
+            }
+            DataTableSpec spec = createSpec(dataModel);
+            m_types = new DataType[spec.getNumColumns() - PROFILE_COLUMNS];
+            for (int i = 0; i < m_types.length; i++) {
+                m_types[i] = spec.getColumnSpec(PROFILE_COLUMNS + i).getType();
+            }
+            m_cells = new DataCell[spec.getNumColumns()];
+            // The profile cells are the same for every row
+            m_cells[0] = new StringCell(dataModel.getProfileInfo().getAccountId());
+            m_cells[1] = new StringCell(dataModel.getProfileInfo().getWebPropertyId());
+            m_cells[2] = new StringCell(dataModel.getProfileInfo().getProfileId());
+            m_cells[3] = new StringCell(dataModel.getProfileInfo().getProfileName());
+            m_cells[4] = new StringCell(String.valueOf(dataModel.getContainsSampledData()));
+            m_container = m_exec.createDataContainer(spec);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void value(final int column, final String value) {
+            m_cells[PROFILE_COLUMNS + column] = createCell(m_types[column], value);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void endRow() {
+            m_container.addRowToTable(new DefaultRow("Row" + m_rowIndex++, m_cells.clone()));
+        }
+    }
+
+    /**
+     * @param type The type of the output column
+     * @param value The raw value returned by the API
+     * @return The cell of the output row
+     */
+    private static DataCell createCell(final DataType type, final String value) {
+        if (value == null) {
+            return DataType.getMissingCell();
+        }
+        if (type.equals(IntCell.TYPE)) {
+            return new IntCell(Integer.parseInt(value));
+        } else if (type.equals(DoubleCell.TYPE)) {
+            return new DoubleCell(Double.parseDouble(value));
+        } else if (value.equals("(not set)")) {
+            // '(not set)' is Googles version of missing value
+            return new MissingCell("(not set)");
+        }
+        return new StringCell(value);
+    }
+
+    /**
+     * @param data Google Analytics data object
+     * @return The KNIME table spec for the given data object
+     */
+    private static DataTableSpec createSpec(final GaData data) {
+        List<DataColumnSpec> colSpecs = new ArrayList<DataColumnSpec>(data.getColumnHeaders().size()+5);
+        
+        // Add additional columns to DataSpec
+        colSpecs.add(new DataColumnSpecCreator("Account Id", StringCell.TYPE).createSpec());
+        colSpecs.add(new DataColumnSpecCreator("Property Id", StringCell.TYPE).createSpec());
+        colSpecs.add(new DataColumnSpecCreator("Profile Id", StringCell.TYPE).createSpec());
+        colSpecs.add(new DataColumnSpecCreator("Profile Name", StringCell.TYPE).createSpec());
+        colSpecs.add(new DataColumnSpecCreator("Is Sampled", StringCell.TYPE).createSpec());
+         
+        for (GaData.ColumnHeaders colHeaders : data.getColumnHeaders()) {
+            String type = colHeaders.getDataType();
+            String name = colHeaders.getName().replaceFirst("ga:", "");
+            if (type.equals("INTEGER")) {
+                colSpecs.add(new DataColumnSpecCreator(name, IntCell.TYPE).createSpec());
+            } else if (type.equals("DOUBLE") || type.equals("PERCENT") || type.equals("TIME") || type.equals("FLOAT")
+                    || type.equals("CURRENCY")) {
+                // All of these are simple floating point numbers
+                colSpecs.add(new DataColumnSpecCreator(name, DoubleCell.TYPE).createSpec());
+            } else {
+                colSpecs.add(new DataColumnSpecCreator(name, StringCell.TYPE).createSpec());
+            }
+        }
+        return new DataTableSpec(colSpecs.toArray(new DataColumnSpec[colSpecs.size()]));
+    }
+
+}
@@ -2,20 +2,12 @@ package com.pg.google.api.analytics.query.node;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.knime.core.data.DataCell;
-import org.knime.core.data.DataColumnSpec;
-import org.knime.core.data.DataColumnSpecCreator;
-import org.knime.core.data.DataTableSpec;
-import org.knime.core.data.DataType;
-import org.knime.core.data.MissingCell;
-import org.knime.core.data.def.DefaultRow;
-import org.knime.core.data.def.DoubleCell;
-import org.knime.core.data.def.IntCell;
-import org.knime.core.data.def.StringCell;
-import org.knime.core.node.BufferedDataContainer;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
@@ -23,13 +15,13 @@ import org.knime.core.node.ExecutionMonitor;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeLogger;
 import org.knime.core.node.NodeModel;
+import org.knime.core.node.NodeSettings;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.port.PortObject;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.port.PortType;
 
-import com.google.api.services.analytics.model.GaData;
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnectionPortObject;
 
@@ -40,6 +32,9 @@ public class GoogleAnalyticsQueryModel extends NodeModel {
 
     protected static final NodeLogger LOGGER = NodeLogger.getLogger(GoogleAnalyticsQueryModel.class);
     
+    // Output of the last execution in incremental mode, kept across resets
+    private IncrementalResult m_incrementalResult;
+    
     /**
      * Constructor of the node model.
      */
@@ -56,88 +51,81 @@ public class GoogleAnalyticsQueryModel extends NodeModel {
     	GoogleAnalyticsConnection connection =
                 ((GoogleAnalyticsConnectionPortObject)inObjects[0]).getGoogleAnalyticsConnection();
         
-    	List<List<String>> rows = connection.query(
-        		configuration.getStartDate(), 
-        		configuration.getEndDate(), 
-        		configuration.getMetricsWithPrefix(),
-        		configuration.getDimensionsWithPrefix(),
-        		configuration.getFiltersWithPrefix(),
-        		configuration.getSegmentWithPrefix(),
-        		exec);
-        
-    	GaData dataModel = connection.getDataModel();
-    	
-    	if ( dataModel == null ) {
-    		throw new Exception("Unable to retrieve result data model");
+    	if (!configuration.isIncremental()) {
+    	    disposeIncrementalResult();
+    	    return new PortObject[]{new GoogleAnalyticsQueryExecutor(configuration).execute(connection, exec, true)};
     	}
-    	
-        DataTableSpec outSpec = createSpec(dataModel);
-        BufferedDataContainer outContainer = exec.createDataContainer(outSpec);
-        
-        if (rows != null) {
-            for (int i = 0; i < rows.size(); i++) {
-                List<String> row = rows.get(i);
-                List<DataCell> cells = new ArrayList<DataCell>(outSpec.getNumColumns());
-                
-                // Add additional columns to DataSpec
-                cells.add(new StringCell(dataModel.getProfileInfo().getAccountId()));
-                cells.add(new StringCell(dataModel.getProfileInfo().getWebPropertyId()));
-                cells.add(new StringCell(dataModel.getProfileInfo().getProfileId()));
-                cells.add(new StringCell(dataModel.getProfileInfo().getProfileName()));
-                cells.add(new StringCell(String.valueOf(dataModel.getContainsSampledData())));
-                
-                for (int j = 0; j < row.size(); j++) {
-                    // Use already determined type
-                    DataType type = outSpec.getColumnSpec((outSpec.getNumColumns() - row.size()) + j).getType();
-                    if (type.equals(IntCell.TYPE)) {
-                        cells.add(new IntCell(Integer.parseInt(row.get(j))));
-                    } else if (type.equals(DoubleCell.TYPE)) {
-                        cells.add(new DoubleCell(Double.parseDouble(row.get(j))));
-                    } else {
-                        String value = row.get(j);
-                        if (value.equals("(not set)")) {
-                            // '(not set)' is Googles version of missing value
-                            cells.add(new MissingCell("(not set)"));
-                        } else {
-                            cells.add(new StringCell(row.get(j)));
-                        }
-                    }
-                }
-                outContainer.addRowToTable(new DefaultRow("Row" + i, cells));
+    	return new PortObject[]{executeIncremental(connection, exec)};
+    }
+
+    /**
+     * Only queries the days after the last day of the previous output, plus the configured number of days before it
+     * that Google Analytics may still have changed, and appends them to the rows of the previous output that are
+     * still in the date range.
+     */
+    private BufferedDataTable executeIncremental(final GoogleAnalyticsConnection connection,
+            final ExecutionContext exec) throws Exception {
+        String query = ResultCache.hash(connection.getQueryKey(configuration.getMetricsWithPrefix(),
+            configuration.getDimensionsWithPrefix(), configuration.getFiltersWithPrefix(),
+            configuration.getSegmentWithPrefix()));
+        IncrementalResult previous = m_incrementalResult;
+        if (previous != null && !previous.isContinuedBy(query)) {
+            LOGGER.info("Query changed since the last execution, fetching the whole date range");
+            previous = null;
+        } else if (previous != null && !previous.covers(configuration.getStartDate())) {
+            LOGGER.info("Start date moved before the one of the last execution, fetching the whole date range");
+            previous = null;
+        }
+        String fetchDate = configuration.getStartDate();
+        if (previous != null) {
+            String refetchDate = addDays(previous.getLastDate(), 1 - configuration.getRefetchDays());
+            if (refetchDate.compareTo(fetchDate) > 0) {
+                fetchDate = refetchDate;
             }
         }
-        outContainer.close();
-        return new PortObject[]{outContainer.getTable()};
+        
+        BufferedDataTable fresh = null;
+        if (previous == null || fetchDate.compareTo(configuration.getEndDate()) <= 0) {
+            LOGGER.info("Fetching " + fetchDate + " to " + configuration.getEndDate());
+            GoogleAnalyticsQueryConfiguration range = copyConfiguration();
+            range.setStartDate(fetchDate);
+            fresh = new GoogleAnalyticsQueryExecutor(range).execute(connection, exec, true);
+        }
+        BufferedDataTable output = previous != null ? previous.merge(fresh, configuration.getStartDate(),
+            configuration.getEndDate(), fetchDate, exec) : fresh;
+        
+        IncrementalResult result = IncrementalResult.create(output, query, configuration.getStartDate(), exec);
+        disposeIncrementalResult();
+        m_incrementalResult = result;
+        return output;
+    }
+
+    private GoogleAnalyticsQueryConfiguration copyConfiguration() throws InvalidSettingsException {
+        NodeSettings settings = new NodeSettings("copy");
+        configuration.save(settings);
+        GoogleAnalyticsQueryConfiguration copy = new GoogleAnalyticsQueryConfiguration();
+        copy.loadInModel(settings);
+        return copy;
     }
 
     /**
-     * @param data Google Analytics data object
-     * @return The KNIME table spec for the given data object
+     * @param date A day in the format YYYY-MM-DD
+     * @param days The number of days to add, may be negative
+     * @return The resulting day in the format YYYY-MM-DD
      */
-    private DataTableSpec createSpec(final GaData data) {
-        List<DataColumnSpec> colSpecs = new ArrayList<DataColumnSpec>(data.getColumnHeaders().size()+5);
-        
-        // Add additional columns to DataSpec
-        colSpecs.add(new DataColumnSpecCreator("Account Id", StringCell.TYPE).createSpec());
-        colSpecs.add(new DataColumnSpecCreator("Property Id", StringCell.TYPE).createSpec());
-        colSpecs.add(new DataColumnSpecCreator("Profile Id", StringCell.TYPE).createSpec());
-        colSpecs.add(new DataColumnSpecCreator("Profile Name", StringCell.TYPE).createSpec());
-        colSpecs.add(new DataColumnSpecCreator("Is Sampled", StringCell.TYPE).createSpec());
-         
-        for (GaData.ColumnHeaders colHeaders : data.getColumnHeaders()) {
-            String type = colHeaders.getDataType();
-            String name = colHeaders.getName().replaceFirst("ga:", "");
-            if (type.equals("INTEGER")) {
-                colSpecs.add(new DataColumnSpecCreator(name, IntCell.TYPE).createSpec());
-            } else if (type.equals("DOUBLE") || type.equals("PERCENT") || type.equals("TIME") || type.equals("FLOAT")
-                    || type.equals("CURRENCY")) {
-                // All of these are simple floating point numbers
-                colSpecs.add(new DataColumnSpecCreator(name, DoubleCell.TYPE).createSpec());
-            } else {
-                colSpecs.add(new DataColumnSpecCreator(name, StringCell.TYPE).createSpec());
-            }
+    private static String addDays(final String date, final int days) throws ParseException {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        Calendar calendar = new GregorianCalendar();
+        calendar.setTime(format.parse(date));
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        return format.format(calendar.getTime());
+    }
+
+    private void disposeIncrementalResult() {
+        if (m_incrementalResult != null) {
+            m_incrementalResult.dispose();
+            m_incrementalResult = null;
         }
-        return new DataTableSpec(colSpecs.toArray(new DataColumnSpec[colSpecs.size()]));
     }
 
     /**
@@ -154,7 +142,8 @@ public class GoogleAnalyticsQueryModel extends NodeModel {
     @Override
     protected void loadInternals(File nodeInternDir, ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
-        // not used
+        disposeIncrementalResult();
+        m_incrementalResult = IncrementalResult.load(nodeInternDir);
     }
 
     /**
@@ -163,7 +152,9 @@ public class GoogleAnalyticsQueryModel extends NodeModel {
     @Override
     protected void saveInternals(File nodeInternDir, ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
-        // not used
+        if (m_incrementalResult != null) {
+            m_incrementalResult.save(nodeInternDir);
+        }
     }
 
     /**
@@ -198,7 +189,15 @@ public class GoogleAnalyticsQueryModel extends NodeModel {
      */
     @Override
     protected void reset() {
-        // not used
+        // The incremental result is kept, the next execution continues it
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDispose() {
+        disposeIncrementalResult();
     }
 
 }
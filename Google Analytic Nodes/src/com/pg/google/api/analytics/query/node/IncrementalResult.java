@@ -0,0 +1,254 @@
+package com.pg.google.api.analytics.query.node;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTable;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.StringValue;
+import org.knime.core.data.container.ContainerTable;
+import org.knime.core.data.container.DataContainer;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.node.BufferedDataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettings;
+import org.knime.core.node.NodeSettingsRO;
+
+/**
+ * The output of the last execution in incremental mode together with its start date and the last day it contains. The table is kept in
+ * a file of its own, so it outlives a reset of the node, and is copied into the node's internals when the workflow is
+ * saved.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class IncrementalResult {
+
+    /**
+     * Name of the output column holding the day of a row in the format YYYYMMDD.
+     */
+    static final String DATE_COLUMN = "date";
+
+    private static final String TABLE_FILE = "previous-output.zip";
+
+    private static final String STATE_FILE = "incremental.xml";
+
+    private static final String CFG_QUERY = "query";
+
+    private static final String CFG_LAST_DATE = "last-date";
+
+    private static final String CFG_START_DATE = "start-date";
+
+    private final File m_table;
+
+    private final String m_query;
+
+    private final String m_lastDate;
+
+    private final String m_startDate;
+
+    private IncrementalResult(final File table, final String query, final String startDate, final String lastDate) {
+        m_table = table;
+        m_query = query;
+        m_startDate = startDate;
+        m_lastDate = lastDate;
+    }
+
+    /**
+     * @param table The output of the execution
+     * @param query The hashed key of the executed query
+     * @param startDate The configured start date of the execution in the format YYYY-MM-DD
+     * @param exec The monitor to check for cancellation while the table is written
+     * @return The result of the execution
+     * @throws IOException If the table could not be written
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    static IncrementalResult create(final BufferedDataTable table, final String query, final String startDate,
+            final ExecutionMonitor exec) throws IOException, CanceledExecutionException {
+        File file = File.createTempFile("ga-incremental", ".zip");
+        try {
+            DataContainer.writeToZip(table, file, exec);
+        } catch (IOException | CanceledExecutionException e) {
+            file.delete();
+            throw e;
+        }
+        return new IncrementalResult(file, query, startDate, findLastDate(table));
+    }
+
+    /**
+     * @param directory The internals directory of the node
+     * @return The result saved in the directory or <code>null</code> if there is none
+     * @throws IOException If the result could not be read
+     */
+    static IncrementalResult load(final File directory) throws IOException {
+        File table = new File(directory, TABLE_FILE);
+        File state = new File(directory, STATE_FILE);
+        if (!table.isFile() || !state.isFile()) {
+            return null;
+        }
+        NodeSettingsRO settings;
+        InputStream in = new FileInputStream(state);
+        try {
+            settings = NodeSettings.loadFromXML(in);
+        } finally {
+            in.close();
+        }
+        File copy = File.createTempFile("ga-incremental", ".zip");
+        Files.copy(table.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try {
+            // Added later, results saved before are fetched again once as their start date is unknown
+            return new IncrementalResult(copy, settings.getString(CFG_QUERY), settings.getString(CFG_START_DATE, null),
+                settings.getString(CFG_LAST_DATE, null));
+        } catch (InvalidSettingsException e) {
+            copy.delete();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @param directory The internals directory of the node
+     * @throws IOException If the result could not be written
+     */
+    void save(final File directory) throws IOException {
+        Files.copy(m_table.toPath(), new File(directory, TABLE_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        NodeSettings settings = new NodeSettings("incremental");
+        settings.addString(CFG_QUERY, m_query);
+        settings.addString(CFG_LAST_DATE, m_lastDate);
+        settings.addString(CFG_START_DATE, m_startDate);
+        OutputStream out = new FileOutputStream(new File(directory, STATE_FILE));
+        try {
+            settings.saveToXML(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param query The hashed key of the query about to be executed
+     * @return true if this result was created by the same query and contains at least one day
+     */
+    boolean isContinuedBy(final String query) {
+        return m_query.equals(query) && m_lastDate != null;
+    }
+
+    /**
+     * @param startDate The configured start date of the execution about to start in the format YYYY-MM-DD
+     * @return true if this result contains all days from <code>startDate</code> on that it was fetched for, false if
+     *         the start date was moved before the one of this result, whose rows then begin too late
+     */
+    boolean covers(final String startDate) {
+        return m_startDate != null && startDate.compareTo(m_startDate) >= 0;
+    }
+
+    /**
+     * @return the last day contained in the result in the format YYYY-MM-DD or <code>null</code> if it has no rows
+     */
+    String getLastDate() {
+        return m_lastDate;
+    }
+
+    /**
+     * Combines the rows of this result from <code>startDate</code> up to the day before <code>fetchDate</code>, but
+     * not after <code>endDate</code>, with the freshly fetched rows.
+     *
+     * @param fresh The rows fetched from <code>fetchDate</code> on or <code>null</code> if no day was fetched
+     * @param startDate The first day of the output in the format YYYY-MM-DD
+     * @param endDate The last day of the output in the format YYYY-MM-DD, it may be before <code>fetchDate</code> if
+     *            the date range was moved back since the last execution
+     * @param fetchDate The first fetched day in the format YYYY-MM-DD
+     * @param exec The context used to create the output
+     * @return The merged output or <code>fresh</code> if its columns differ from the columns of this result
+     * @throws IOException If this result could not be read
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    BufferedDataTable merge(final BufferedDataTable fresh, final String startDate, final String endDate,
+            final String fetchDate, final ExecutionContext exec) throws IOException, CanceledExecutionException {
+        ContainerTable previous = DataContainer.readFromZip(m_table);
+        try {
+            DataTableSpec spec = previous.getDataTableSpec();
+            if (fresh != null && !fresh.getDataTableSpec().equalStructure(spec)) {
+                return fresh;
+            }
+            int dateColumn = spec.findColumnIndex(DATE_COLUMN);
+            String first = startDate.replace("-", "");
+            String fetched = fetchDate.replace("-", "");
+            String last = endDate.replace("-", "");
+            BufferedDataContainer container = exec.createDataContainer(spec);
+            int rowIndex = 0;
+            for (DataRow row : previous) {
+                String date = getDate(row, dateColumn);
+                if (date != null && date.compareTo(first) >= 0 && date.compareTo(fetched) < 0
+                        && date.compareTo(last) <= 0) {
+                    container.addRowToTable(copy(row, rowIndex++));
+                }
+            }
+            if (fresh != null) {
+                for (DataRow row : fresh) {
+                    container.addRowToTable(copy(row, rowIndex++));
+                    if (rowIndex % 10000 == 0) {
+                        exec.checkCanceled();
+                    }
+                }
+            }
+            container.close();
+            return container.getTable();
+        } finally {
+            previous.clear();
+        }
+    }
+
+    /**
+     * Deletes the file of the result.
+     */
+    void dispose() {
+        m_table.delete();
+    }
+
+    private static DataRow copy(final DataRow row, final int rowIndex) {
+        List<DataCell> cells = new ArrayList<DataCell>(row.getNumCells());
+        for (DataCell cell : row) {
+            cells.add(cell);
+        }
+        return new DefaultRow("Row" + rowIndex, cells);
+    }
+
+    /**
+     * @return The last day of the table in the format YYYY-MM-DD or <code>null</code> if it has no rows
+     */
+    private static String findLastDate(final DataTable table) {
+        int dateColumn = table.getDataTableSpec().findColumnIndex(DATE_COLUMN);
+        String last = null;
+        for (DataRow row : table) {
+            String date = getDate(row, dateColumn);
+            if (date != null && (last == null || date.compareTo(last) > 0)) {
+                last = date;
+            }
+        }
+        if (last == null || last.length() != 8) {
+            return null;
+        }
+        return last.substring(0, 4) + "-" + last.substring(4, 6) + "-" + last.substring(6);
+    }
+
+    private static String getDate(final DataRow row, final int dateColumn) {
+        if (dateColumn < 0) {
+            return null;
+        }
+        DataCell cell = row.getCell(dateColumn);
+        return cell.isMissing() ? null : ((StringValue)cell).getStringValue();
+    }
+
+}
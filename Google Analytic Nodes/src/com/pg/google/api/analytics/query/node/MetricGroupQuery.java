@@ -0,0 +1,291 @@
+package com.pg.google.api.analytics.query.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.services.analytics.model.GaData;
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsRowCollector;
+import com.pg.google.api.analytics.connector.data.GoogleAnalyticsRowConsumer;
+
+/**
+ * Runs a query with more metrics than a single request allows. The metrics are split into groups of
+ * {@link #MAX_METRICS_PER_REQUEST} that are queried concurrently with the same dimensions, the group results are
+ * joined on the dimension values in memory before they are handed to the consumer.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class MetricGroupQuery {
+
+    /**
+     * Maximum number of metrics the API accepts in a single request.
+     */
+    static final int MAX_METRICS_PER_REQUEST = 10;
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(MetricGroupQuery.class);
+
+    // Google Analytics omits rows where all requested metrics are zero
+    private static final String MISSING_METRIC = "0";
+
+    private static final String KEY_SEPARATOR = "\u0000";
+
+    private final GoogleAnalyticsConnection m_connection;
+
+    private final String[] m_metrics;
+
+    private final String[] m_dimensions;
+
+    private final String m_filters;
+
+    private final String m_segment;
+
+    private final int m_pageSize;
+
+    private final int m_parallelRequests;
+
+    /**
+     * @param connection The connection to query
+     * @param metrics All metrics of the query, with prefix
+     * @param dimensions The dimensions of the query, with prefix
+     * @param filters The filters of the query
+     * @param segment The segment of the query
+     * @param pageSize The page size handed to the connection
+     * @param parallelRequests The number of pages requested at the same time per metric group
+     */
+    MetricGroupQuery(final GoogleAnalyticsConnection connection, final String[] metrics, final String[] dimensions,
+            final String filters, final String segment, final int pageSize, final int parallelRequests) {
+        m_connection = connection;
+        m_metrics = metrics;
+        m_dimensions = dimensions;
+        m_filters = filters;
+        m_segment = segment;
+        m_pageSize = pageSize;
+        m_parallelRequests = parallelRequests;
+    }
+
+    /**
+     * @param metricCount The number of metrics of a query
+     * @return true if the metrics do not fit into a single request
+     */
+    static boolean isSplitNeeded(final int metricCount) {
+        return metricCount > MAX_METRICS_PER_REQUEST;
+    }
+
+    /**
+     * Queries the given date range, in a single request if the metrics fit, otherwise per metric group.
+     *
+     * @param startDate The first day of the query
+     * @param endDate The last day of the query
+     * @param consumer Receives the (joined) response and rows
+     * @param context The context progress is reported to or <code>null</code>
+     * @param exec The monitor used to check for cancellation while waiting for the metric groups
+     * @throws Exception If a request failed
+     */
+    void query(final String startDate, final String endDate, final GoogleAnalyticsRowConsumer consumer,
+            final ExecutionContext context, final ExecutionMonitor exec) throws Exception {
+        if (!isSplitNeeded(m_metrics.length)) {
+            m_connection.query(startDate, endDate, m_metrics, m_dimensions, m_filters, m_segment, m_pageSize,
+                m_parallelRequests, consumer, context);
+            return;
+        }
+        List<String[]> groups = new ArrayList<String[]>();
+        for (int i = 0; i < m_metrics.length; i += MAX_METRICS_PER_REQUEST) {
+            groups.add(Arrays.copyOfRange(m_metrics, i, Math.min(i + MAX_METRICS_PER_REQUEST, m_metrics.length)));
+        }
+        LOGGER.info("Splitting " + m_metrics.length + " metrics into " + groups.size() + " requests");
+        ExecutorService executor = Executors.newFixedThreadPool(groups.size(),
+            GoogleAnalyticsConnection.createThreadFactory("GA-Query-Metrics"));
+        try {
+            List<Future<GroupResult>> futures = new ArrayList<Future<GroupResult>>(groups.size());
+            for (int i = 0; i < groups.size(); i++) {
+                final String[] group = groups.get(i);
+                // Only the first group reports its paging progress
+                final ExecutionContext groupContext = i == 0 ? context : null;
+                futures.add(executor.submit(new Callable<GroupResult>() {
+                    @Override
+                    public GroupResult call() throws Exception {
+                        GroupResult result = new GroupResult();
+                        m_connection.query(startDate, endDate, group, m_dimensions, m_filters, m_segment,
+                            m_pageSize, m_parallelRequests, result, groupContext);
+                        return result;
+                    }
+                }));
+            }
+            List<GroupResult> results = new ArrayList<GroupResult>(groups.size());
+            for (Future<GroupResult> future : futures) {
+                results.add(GoogleAnalyticsQueryExecutor.await(future, exec));
+            }
+            join(results, consumer);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Joins the rows of all groups on their dimension values. Rows missing in a group get zero for its metrics.
+     *
+     * @param results The results of the metric groups in metric order
+     * @param consumer Receives the joined response and rows
+     */
+    private void join(final List<GroupResult> results, final GoogleAnalyticsRowConsumer consumer) {
+        GaData first = results.get(0).m_dataModel;
+        if (first == null) {
+            return;
+        }
+        List<GaData.ColumnHeaders> headers = new ArrayList<GaData.ColumnHeaders>();
+        boolean sampled = false;
+        for (GroupResult result : results) {
+            if (result.m_dataModel == null) {
+                throw new IllegalStateException("No response received for a metric group");
+            }
+            result.index();
+            sampled |= Boolean.TRUE.equals(result.m_dataModel.getContainsSampledData());
+        }
+        headers.addAll(results.get(0).dimensionHeaders());
+        for (GroupResult result : results) {
+            headers.addAll(result.metricHeaders());
+        }
+        GaData joined = first.clone();
+        joined.setColumnHeaders(headers);
+        joined.setContainsSampledData(sampled);
+        joined.setRows(null);
+
+        // Hash the rows of every group by their dimension values, keeping the order of first appearance
+        Map<String, String[][]> table = new LinkedHashMap<String, String[][]>();
+        Map<String, List<String>> dimensionValues = new LinkedHashMap<String, List<String>>();
+        for (int g = 0; g < results.size(); g++) {
+            GroupResult result = results.get(g);
+            for (List<String> row : result.m_rows) {
+                List<String> dims = result.dimensionValues(row);
+                String key = StringUtils.join(dims, KEY_SEPARATOR);
+                String[][] metrics = table.get(key);
+                if (metrics == null) {
+                    metrics = new String[results.size()][];
+                    table.put(key, metrics);
+                    dimensionValues.put(key, dims);
+                }
+                metrics[g] = result.metricValues(row);
+            }
+            // Free the group rows as soon as they are hashed
+            result.m_rows.clear();
+        }
+        if (!consumer.start(joined)) {
+            return;
+        }
+        for (Map.Entry<String, String[][]> entry : table.entrySet()) {
+            int column = 0;
+            for (String dimension : dimensionValues.get(entry.getKey())) {
+                consumer.value(column++, dimension);
+            }
+            String[][] metrics = entry.getValue();
+            for (int g = 0; g < metrics.length; g++) {
+                for (int m = 0; m < results.get(g).m_metricIndices.length; m++) {
+                    consumer.value(column++, metrics[g] != null ? metrics[g][m] : MISSING_METRIC);
+                }
+            }
+            consumer.endRow();
+        }
+    }
+
+    /**
+     * Collects the response and rows of a single metric group.
+     */
+    private static class GroupResult extends GoogleAnalyticsRowCollector {
+
+        private GaData m_dataModel;
+
+        private final List<List<String>> m_rows = new ArrayList<List<String>>();
+
+        private int[] m_dimensionIndices;
+
+        private int[] m_metricIndices;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean start(final GaData dataModel) {
+            m_dataModel = dataModel;
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void consume(final List<String> row) {
+            m_rows.add(row);
+        }
+
+        /**
+         * Determines the positions of the dimension and metric values from the column headers.
+         */
+        void index() {
+            List<GaData.ColumnHeaders> headers = m_dataModel.getColumnHeaders();
+            List<Integer> dimensions = new ArrayList<Integer>();
+            List<Integer> metrics = new ArrayList<Integer>();
+            for (int i = 0; i < headers.size(); i++) {
+                if ("DIMENSION".equals(headers.get(i).getColumnType())) {
+                    dimensions.add(i);
+                } else {
+                    metrics.add(i);
+                }
+            }
+            m_dimensionIndices = toArray(dimensions);
+            m_metricIndices = toArray(metrics);
+        }
+
+        List<GaData.ColumnHeaders> dimensionHeaders() {
+            List<GaData.ColumnHeaders> headers = new ArrayList<GaData.ColumnHeaders>(m_dimensionIndices.length);
+            for (int i : m_dimensionIndices) {
+                headers.add(m_dataModel.getColumnHeaders().get(i));
+            }
+            return headers;
+        }
+
+        List<GaData.ColumnHeaders> metricHeaders() {
+            List<GaData.ColumnHeaders> headers = new ArrayList<GaData.ColumnHeaders>(m_metricIndices.length);
+            for (int i : m_metricIndices) {
+                headers.add(m_dataModel.getColumnHeaders().get(i));
+            }
+            return headers;
+        }
+
+        List<String> dimensionValues(final List<String> row) {
+            List<String> values = new ArrayList<String>(m_dimensionIndices.length);
+            for (int i : m_dimensionIndices) {
+                values.add(row.get(i));
+            }
+            return values;
+        }
+
+        String[] metricValues(final List<String> row) {
+            String[] values = new String[m_metricIndices.length];
+            for (int i = 0; i < m_metricIndices.length; i++) {
+                values[i] = row.get(m_metricIndices[i]);
+            }
+            return values;
+        }
+
+        private static int[] toArray(final List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+
+}
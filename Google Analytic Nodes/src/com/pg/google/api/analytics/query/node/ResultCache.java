@@ -0,0 +1,277 @@
+package com.pg.google.api.analytics.query.node;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.knime.core.data.container.ContainerTable;
+import org.knime.core.data.container.DataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.KNIMEConstants;
+import org.knime.core.node.NodeLogger;
+
+/**
+ * Keeps query results on disk, one file per query and date range, so re-executing a query only fetches the days that
+ * are not cached yet. Results with the date dimension are stored in calendar aligned parts, see
+ * {@link DateRangeShard#partition(String, String)}, other results per queried shard or date range.
+ *
+ * Google Analytics keeps processing data for a few days, older days never change. Results ending at least
+ * {@link #SETTLED_DAYS} days ago are cached until the cache runs out of space, more recent results are only used for
+ * {@link #RECENT_MAX_AGE_MINUTES} minutes and fetched again afterwards. When the cache grows beyond its size the least
+ * recently used results are removed. The size and the age of recent results can be changed with the system properties
+ * <code>pg.ganalytics.cache.maxMegabytes</code> and <code>pg.ganalytics.cache.recentMinutes</code>.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class ResultCache {
+
+    /**
+     * Number of days after which the data of a day is considered final.
+     */
+    static final int SETTLED_DAYS = 3;
+
+    /**
+     * Time results containing recent days are used before they are fetched again.
+     */
+    static final long RECENT_MAX_AGE_MINUTES = Long.getLong("pg.ganalytics.cache.recentMinutes", 60);
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(ResultCache.class);
+
+    private static final long MAX_BYTES = Long.getLong("pg.ganalytics.cache.maxMegabytes", 1024) * 1024 * 1024;
+
+    private static final String SETTLED_SUFFIX = ".table";
+
+    private static final String RECENT_SUFFIX = ".recent.table";
+
+    private final File m_directory;
+
+    private final long m_maxBytes;
+
+    // Size of all cached files, -1 until the directory was scanned
+    private long m_size = -1;
+
+    private static class Holder {
+        private static final ResultCache INSTANCE = createInstance();
+    }
+
+    /**
+     * @param directory The directory the results are stored in
+     * @param maxBytes The size the cache may grow to
+     */
+    ResultCache(final File directory, final long maxBytes) {
+        m_directory = directory;
+        m_maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The cache shared by all nodes in the KNIME home directory
+     */
+    static ResultCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static ResultCache createInstance() {
+        String home = KNIMEConstants.getKNIMEHomeDir();
+        return new ResultCache(new File(home != null ? home : System.getProperty("user.home"), "pg-ganalytics-cache"),
+                MAX_BYTES);
+    }
+
+    /**
+     * @param queryKey The key of the query, see {@link
+     *            com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection#getQueryKey(String[], String[],
+     *            String, String)}
+     * @param startDate The first day of the result
+     * @param endDate The last day of the result
+     * @param exec The context the table is created with
+     * @return The cached result or <code>null</code> if it is not cached or outdated
+     * @throws CanceledExecutionException If the execution was canceled while reading the result
+     */
+    BufferedDataTable get(final String queryKey, final String startDate, final String endDate,
+            final ExecutionContext exec) throws CanceledExecutionException {
+        File file = getFile(queryKey, startDate, endDate, SETTLED_SUFFIX);
+        if (!file.isFile()) {
+            file = getFile(queryKey, startDate, endDate, RECENT_SUFFIX);
+            if (!file.isFile() || System.currentTimeMillis() - file.lastModified() > TimeUnit.MINUTES
+                    .toMillis(RECENT_MAX_AGE_MINUTES)) {
+                return null;
+            }
+        } else {
+            // Settled results are evicted by their last use
+            file.setLastModified(System.currentTimeMillis());
+        }
+        try {
+            ContainerTable table = DataContainer.readFromZip(file);
+            try {
+                BufferedDataTable result = exec.createBufferedDataTable(table, exec);
+                LOGGER.debug("Using cached result from " + startDate + " to " + endDate);
+                return result;
+            } finally {
+                table.clear();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable cached result " + file + ": " + e.getMessage());
+            delete(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a complete result. Failures are only logged, the result is fetched again next time.
+     *
+     * @param queryKey The key of the query
+     * @param startDate The first day of the result
+     * @param endDate The last day of the result
+     * @param table The result
+     * @param exec The monitor to check for cancellation while writing
+     * @throws CanceledExecutionException If the execution was canceled while writing the result
+     */
+    void put(final String queryKey, final String startDate, final String endDate, final BufferedDataTable table,
+            final ExecutionMonitor exec) throws CanceledExecutionException {
+        boolean settled = isSettled(endDate);
+        File file = getFile(queryKey, startDate, endDate, settled ? SETTLED_SUFFIX : RECENT_SUFFIX);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create " + file.getParentFile());
+            }
+            DataContainer.writeToZip(table, temp, exec);
+            synchronized (this) {
+                long replaced = file.length();
+                if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                    throw new IOException("Unable to replace " + file);
+                }
+                if (settled) {
+                    // The final result replaces the one of the days still being processed
+                    File recent = getFile(queryKey, startDate, endDate, RECENT_SUFFIX);
+                    long length = recent.length();
+                    if (delete(recent)) {
+                        replaced += length;
+                    }
+                }
+                if (m_size >= 0) {
+                    m_size += file.length() - replaced;
+                }
+                evict();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to cache result from " + startDate + " to " + endDate + ": " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    /**
+     * @param endDate The last day of a result in the format YYYY-MM-DD
+     * @return true if the data of all days of the result is final
+     */
+    static boolean isSettled(final String endDate) {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        Calendar settled = new GregorianCalendar();
+        settled.add(Calendar.DAY_OF_MONTH, -SETTLED_DAYS);
+        return endDate.compareTo(format.format(settled.getTime())) <= 0;
+    }
+
+    /**
+     * Removes the least recently used results until the cache fits into its size.
+     */
+    private void evict() {
+        if (m_size < 0) {
+            m_size = 0;
+            for (File file : listFiles()) {
+                m_size += file.length();
+            }
+        }
+        if (m_size <= m_maxBytes) {
+            return;
+        }
+        List<File> files = listFiles();
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(final File f1, final File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File file : sorted) {
+            if (m_size <= m_maxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (delete(file)) {
+                m_size -= length;
+            }
+        }
+        LOGGER.debug("Reduced the result cache to " + m_size / (1024 * 1024) + " MB");
+    }
+
+    private List<File> listFiles() {
+        List<File> files = new ArrayList<File>();
+        File[] queries = m_directory.listFiles();
+        if (queries == null) {
+            return files;
+        }
+        for (File query : queries) {
+            File[] results = query.listFiles();
+            if (results == null) {
+                continue;
+            }
+            for (File result : results) {
+                // Settled and recent results, but no files that are still being written
+                if (result.getName().endsWith(SETTLED_SUFFIX)) {
+                    files.add(result);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static boolean delete(final File file) {
+        if (file.delete()) {
+            File parent = file.getParentFile();
+            String[] remaining = parent.list();
+            if (remaining != null && remaining.length == 0) {
+                parent.delete();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private File getFile(final String queryKey, final String startDate, final String endDate, final String suffix) {
+        return new File(new File(m_directory, hash(queryKey)), startDate + "_" + endDate + suffix);
+    }
+
+    /**
+     * @param key A query key
+     * @return The hex encoded SHA-1 hash of the key, to be stored instead of the key, which contains credentials
+     */
+    static String hash(final String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Every Java platform supports both
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.pg.google.api.anaytics.profilelist.node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.StringValue;
+import org.knime.core.data.container.ContainerTable;
+import org.knime.core.data.container.DataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * The profile list of the last execution in incremental mode. The table is kept in a file of its own, so it outlives
+ * a reset of the node, and is copied into the node's internals when the workflow is saved.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class ProfileInventory {
+
+    private static final String TABLE_FILE = "profile-inventory.zip";
+
+    private final File m_table;
+
+    private ProfileInventory(final File table) {
+        m_table = table;
+    }
+
+    /**
+     * @param table The profile list of the execution
+     * @param exec The monitor to check for cancellation while the table is written
+     * @return The inventory of the execution
+     * @throws IOException If the table could not be written
+     * @throws CanceledExecutionException If the execution was canceled
+     */
+    static ProfileInventory create(final BufferedDataTable table, final ExecutionMonitor exec) throws IOException,
+            CanceledExecutionException {
+        File file = File.createTempFile("ga-profiles", ".zip");
+        try {
+            DataContainer.writeToZip(table, file, exec);
+        } catch (IOException | CanceledExecutionException e) {
+            file.delete();
+            throw e;
+        }
+        return new ProfileInventory(file);
+    }
+
+    /**
+     * @param directory The internals directory of the node
+     * @return The inventory saved in the directory or <code>null</code> if there is none
+     * @throws IOException If the inventory could not be read
+     */
+    static ProfileInventory load(final File directory) throws IOException {
+        File table = new File(directory, TABLE_FILE);
+        if (!table.isFile()) {
+            return null;
+        }
+        File copy = File.createTempFile("ga-profiles", ".zip");
+        Files.copy(table.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return new ProfileInventory(copy);
+    }
+
+    /**
+     * @param directory The internals directory of the node
+     * @throws IOException If the inventory could not be written
+     */
+    void save(final File directory) throws IOException {
+        Files.copy(m_table.toPath(), new File(directory, TABLE_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param spec The columns of the current profile list
+     * @param idColumn The name of the column holding the profile IDs
+     * @return The cells of the listed profiles by their ID in the order of the list or <code>null</code> if the columns
+     *         of the inventory differ from the current ones
+     * @throws IOException If the inventory could not be read
+     */
+    Map<String, List<DataCell>> getProfiles(final DataTableSpec spec, final String idColumn) throws IOException {
+        ContainerTable table = DataContainer.readFromZip(m_table);
+        try {
+            if (!table.getDataTableSpec().equalStructure(spec)) {
+                return null;
+            }
+            int index = spec.findColumnIndex(idColumn);
+            Map<String, List<DataCell>> profiles = new LinkedHashMap<String, List<DataCell>>();
+            for (DataRow row : table) {
+                DataCell id = row.getCell(index);
+                if (!id.isMissing()) {
+                    List<DataCell> cells = new ArrayList<DataCell>(row.getNumCells());
+                    for (DataCell cell : row) {
+                        cells.add(cell);
+                    }
+                    profiles.put(((StringValue)id).getStringValue(), cells);
+                }
+            }
+            return profiles;
+        } finally {
+            table.clear();
+        }
+    }
+
+    /**
+     * Deletes the file of the inventory.
+     */
+    void dispose() {
+        m_table.delete();
+    }
+
+}
@@ -1,6 +1,11 @@
 package com.pg.google.api.anaytics.profilelist.node;
 
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 
 /**
  * <code>NodeDialog</code> for the "ProfileList" Node.
@@ -19,7 +24,28 @@ public class ProfileListNodeDialog extends DefaultNodeSettingsPane {
      * New pane for configuring the ProfileList node.
      */
     protected ProfileListNodeDialog() {
-
+    	final SettingsModelBoolean details = ProfileListNodeModel.createDetailsModel();
+    	final SettingsModelBoolean incremental = ProfileListNodeModel.createIncrementalModel();
+    	// Only the details tell when a profile was changed
+    	details.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				incremental.setEnabled(details.getBooleanValue());
+			}
+		});
+    	addDialogComponent(new DialogComponentBoolean(details,
+    			"List profile details (timezone, currency, dates, ...)"));
+    	addDialogComponent(new DialogComponentBoolean(incremental,
+    			"Incremental (only read added and changed profiles)"));
+    	createNewGroup("Additional outputs");
+    	addDialogComponent(new DialogComponentBoolean(ProfileListNodeModel.createGoalsModel(), "List goals"));
+    	addDialogComponent(new DialogComponentBoolean(ProfileListNodeModel.createFilterLinksModel(),
+    			"List filters"));
+    	addDialogComponent(new DialogComponentBoolean(ProfileListNodeModel.createCustomDimensionsModel(),
+    			"List custom dimensions"));
+    	addDialogComponent(new DialogComponentBoolean(ProfileListNodeModel.createCustomMetricsModel(),
+    			"List custom metrics"));
+    	closeCurrentGroup();
     }
 }
 
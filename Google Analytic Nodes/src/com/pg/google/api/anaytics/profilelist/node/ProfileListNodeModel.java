@@ -3,15 +3,26 @@ package com.pg.google.api.anaytics.profilelist.node;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DataType;
+import org.knime.core.data.StringValue;
 import org.knime.core.data.date.DateAndTimeCell;
+import org.knime.core.data.date.DateAndTimeValue;
 import org.knime.core.data.def.BooleanCell;
 import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.DoubleCell;
+import org.knime.core.data.def.IntCell;
 import org.knime.core.data.def.StringCell;
 import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
@@ -23,15 +34,22 @@ import org.knime.core.node.NodeLogger;
 import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.port.PortObject;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.port.PortType;
 
 import com.pg.google.api.analytics.connector.data.GoogleAnalyticsConnection;
+import com.pg.google.api.analytics.connector.data.ManagementCollections;
+import com.pg.google.api.connector.data.GoogleApiConnection;
 import com.pg.google.api.connector.data.GoogleApiConnectionPortObject;
 import com.pg.google.api.connector.data.GoogleApiConnectionPortObjectSpec;
 import com.google.api.client.util.DateTime;
+import com.google.api.services.analytics.model.CustomDimension;
+import com.google.api.services.analytics.model.CustomMetric;
+import com.google.api.services.analytics.model.Goal;
 import com.google.api.services.analytics.model.Profile;
+import com.google.api.services.analytics.model.ProfileFilterLink;
 
 /**
  * This is the model implementation of ProfileList.
@@ -43,13 +61,104 @@ public class ProfileListNodeModel extends NodeModel {
     
 	NodeLogger LOGGER = NodeLogger.getLogger(ProfileListNodeModel.class);
 	
+	static final String CFG_DETAILS = "details";
+	
+	static final String CFG_INCREMENTAL = "incremental";
+	
+	static final String CFG_GOALS = "goals";
+	
+	static final String CFG_FILTER_LINKS = "filterLinks";
+	
+	static final String CFG_CUSTOM_DIMENSIONS = "customDimensions";
+	
+	static final String CFG_CUSTOM_METRICS = "customMetrics";
+	
+	private static final String ACCOUNT_ID_COLUMN = "Account ID";
+	
+	private static final String PROPERTY_ID_COLUMN = "WebProperty ID";
+	
+	private static final String PROFILE_ID_COLUMN = "Profile ID";
+	
+	private static final String UPDATED_COLUMN = "Updated";
+	
+	private static final int UPDATED_INDEX = createSpec().findColumnIndex(UPDATED_COLUMN);
+	
+	private static final int ACCOUNT_ID_INDEX = createSpec().findColumnIndex(ACCOUNT_ID_COLUMN);
+	
+	private static final int PROPERTY_ID_INDEX = createSpec().findColumnIndex(PROPERTY_ID_COLUMN);
+	
+	private static final int PROFILE_ID_INDEX = createSpec().findColumnIndex(PROFILE_ID_COLUMN);
+	
+	// Above this number of added and changed profiles all profiles are listed instead of reading each of them
+	private static final int MAX_DETAIL_REQUESTS = 50;
+	
+	private final SettingsModelBoolean m_details = createDetailsModel();
+	
+	private final SettingsModelBoolean m_incremental = createIncrementalModel();
+	
+	private final SettingsModelBoolean m_goals = createGoalsModel();
+	
+	private final SettingsModelBoolean m_filterLinks = createFilterLinksModel();
+	
+	private final SettingsModelBoolean m_customDimensions = createCustomDimensionsModel();
+	
+	private final SettingsModelBoolean m_customMetrics = createCustomMetricsModel();
+	
+	// Profile list of the last execution in incremental mode, kept across resets
+	private ProfileInventory m_inventory;
+	
+	/**
+	 * @return The setting whether all profile details are listed or only the account tree, which takes far fewer
+	 *         requests
+	 */
+	static SettingsModelBoolean createDetailsModel() {
+		return new SettingsModelBoolean(CFG_DETAILS, true);
+	}
+	
+	/**
+	 * @return The setting whether only added and changed profiles are read, the others are taken from the last
+	 *         execution
+	 */
+	static SettingsModelBoolean createIncrementalModel() {
+		return new SettingsModelBoolean(CFG_INCREMENTAL, false);
+	}
+	
+	/**
+	 * @return The setting whether the goals of the profiles are listed
+	 */
+	static SettingsModelBoolean createGoalsModel() {
+		return new SettingsModelBoolean(CFG_GOALS, false);
+	}
+	
+	/**
+	 * @return The setting whether the filters applied to the profiles are listed
+	 */
+	static SettingsModelBoolean createFilterLinksModel() {
+		return new SettingsModelBoolean(CFG_FILTER_LINKS, false);
+	}
+	
+	/**
+	 * @return The setting whether the custom dimensions of the profiles' web properties are listed
+	 */
+	static SettingsModelBoolean createCustomDimensionsModel() {
+		return new SettingsModelBoolean(CFG_CUSTOM_DIMENSIONS, false);
+	}
+	
+	/**
+	 * @return The setting whether the custom metrics of the profiles' web properties are listed
+	 */
+	static SettingsModelBoolean createCustomMetricsModel() {
+		return new SettingsModelBoolean(CFG_CUSTOM_METRICS, false);
+	}
+	
 	/**
      * Constructor for the node model.
      */
     protected ProfileListNodeModel() {
     
     	super(new PortType[]{GoogleApiConnectionPortObject.TYPE},
-                new PortType[]{BufferedDataTable.TYPE});
+                new PortType[]{BufferedDataTable.TYPE, BufferedDataTable.TYPE, BufferedDataTable.TYPE,
+    					BufferedDataTable.TYPE, BufferedDataTable.TYPE, BufferedDataTable.TYPE});
     }
 
     /**
@@ -59,58 +168,309 @@ public class ProfileListNodeModel extends NodeModel {
     protected PortObject[] execute(PortObject[] inObjects, ExecutionContext exec) throws Exception {
         
     	GoogleApiConnectionPortObjectSpec inSpec = (GoogleApiConnectionPortObjectSpec)inObjects[0].getSpec();
-        List<Profile> profiles = null;
-        
-        try { 
-        	profiles = GoogleAnalyticsConnection.getAllProfiles(inSpec.getGoogleApiConnection());
-        } catch ( IOException exc ) {
-        	LOGGER.warn ( "Unable to get profile list... trying again.");
-        	Thread.sleep(2000);
-        	profiles = GoogleAnalyticsConnection.getAllProfiles(inSpec.getGoogleApiConnection());
+        DataTableSpec outSpec = createSpec();
+        Map<String, List<DataCell>> previous = null;
+        if ( isIncremental() ) {
+        	if ( m_inventory != null ) {
+        		previous = m_inventory.getProfiles(outSpec, PROFILE_ID_COLUMN);
+        	}
+        } else {
+        	disposeInventory();
         }
+        
+        List<List<DataCell>> changes = new ArrayList<List<DataCell>>();
+        // Each request is retried on its own, e.g. after hitting a rate limit
+        List<List<DataCell>> rows = listRows(inSpec.getGoogleApiConnection(), previous, changes, exec);
     	
-        DataTableSpec outSpec = createSpec();
         BufferedDataContainer outContainer = exec.createDataContainer(outSpec);
-        
         int count = 0;
-        for ( Profile profile : profiles ) {
-        	
-        	List<DataCell> cells = new ArrayList<DataCell>(outSpec.getNumColumns());
- 	    	
-        	String accountId = profile.getAccountId();
-        	String propertyId = profile.getWebPropertyId();
-        	String internalPropertyId = profile.getInternalWebPropertyId();
-        	String profileId = profile.getId();
-        	String name = profile.getName();
-        	String siteUrl = profile.getWebsiteUrl();
-        	String timezone = profile.getTimezone();
-        	DateTime createdDate = profile.getCreated();
-        	DateTime updatedDate = profile.getUpdated();
-        	String currency = profile.getCurrency();
-        	Boolean eCommerceTracking = profile.getECommerceTracking();
-        	String excludedParams = profile.getExcludeQueryParameters();
-        	
-        	cells.add(new StringCell(def(accountId)));
-        	cells.add(new StringCell(def(propertyId)));
-        	cells.add(new StringCell(def(internalPropertyId)));
-        	cells.add(new StringCell(def(profileId)));
-        	cells.add(new StringCell(def(name)));
-        	cells.add(new StringCell(def(siteUrl)));
-        	cells.add(new StringCell(def(timezone)));
-        	cells.add(new DateAndTimeCell(createdDate.getValue(), true, true, false));
-        	cells.add(new DateAndTimeCell(updatedDate.getValue(), true, true, false));
-        	cells.add(new StringCell(def(currency)));
-        	cells.add(eCommerceTracking ? BooleanCell.TRUE : BooleanCell.FALSE);
-        	cells.add(new StringCell(def(excludedParams)));
-        	
+        for ( List<DataCell> cells : rows ) {
         	outContainer.addRowToTable(new DefaultRow("Row" + count++, cells));
         }
     	outContainer.close();
+    	
+    	BufferedDataContainer changeContainer = exec.createDataContainer(createChangeSpec());
+    	count = 0;
+    	for ( List<DataCell> cells : changes ) {
+    		changeContainer.addRowToTable(new DefaultRow("Row" + count++, cells));
+    	}
+    	changeContainer.close();
+    	
+    	if ( isIncremental() && (m_inventory == null || !changes.isEmpty()) ) {
+    		ProfileInventory inventory = ProfileInventory.create(outContainer.getTable(), exec);
+    		disposeInventory();
+    		m_inventory = inventory;
+    	}
+    	if ( previous != null ) {
+    		LOGGER.info(changes.size() + " of " + rows.size() + " profiles were added, changed or removed");
+    	}
+    	
+    	List<String> denied = new ArrayList<String>();
+    	BufferedDataTable[] enrichments = createEnrichments(inSpec.getGoogleApiConnection(), rows, denied, exec);
+    	if ( !denied.isEmpty() ) {
+    		setWarningMessage("Not allowed to list the " + denied.get(0) 
+    				+ (denied.size() > 1 ? " and " + (denied.size() - 1) + " more" : "") + ", see the log for details");
+    	}
         
-        return new BufferedDataTable[]{outContainer.getTable()};
+        return new BufferedDataTable[]{outContainer.getTable(), changeContainer.getTable(), enrichments[0], 
+        		enrichments[1], enrichments[2], enrichments[3]};
+    }
+    
+    /**
+     * Lists the goals, filter links, custom dimensions and custom metrics of the listed profiles, each that is 
+     * selected.
+     * 
+     * @param connection The Google API connection
+     * @param rows The cells of the listed profiles
+     * @param denied Receives the accounts and web properties whose collections the user may not read
+     * @param exec The context used to create the tables
+     * @return The goals, filter links, custom dimensions and custom metrics, tables that are not selected are empty
+     */
+    private BufferedDataTable[] createEnrichments( GoogleApiConnection connection, List<List<DataCell>> rows, 
+    		List<String> denied, ExecutionContext exec ) throws IOException, CanceledExecutionException {
+    	Set<String> accountIds = new LinkedHashSet<String>();
+    	Map<String, String> propertyAccounts = new LinkedHashMap<String, String>();
+    	Map<String, List<String>> propertyProfiles = new HashMap<String, List<String>>();
+    	Set<String> profileIds = new HashSet<String>();
+    	for ( List<DataCell> cells : rows ) {
+    		String accountId = ((StringValue)cells.get(ACCOUNT_ID_INDEX)).getStringValue();
+    		String propertyId = ((StringValue)cells.get(PROPERTY_ID_INDEX)).getStringValue();
+    		String profileId = ((StringValue)cells.get(PROFILE_ID_INDEX)).getStringValue();
+    		accountIds.add(accountId);
+    		propertyAccounts.put(propertyId, accountId);
+    		if ( !propertyProfiles.containsKey(propertyId) ) {
+    			propertyProfiles.put(propertyId, new ArrayList<String>());
+    		}
+    		propertyProfiles.get(propertyId).add(profileId);
+    		profileIds.add(profileId);
+    	}
+    	
+    	BufferedDataContainer goals = exec.createDataContainer(createGoalSpec());
+    	if ( m_goals.getBooleanValue() ) {
+    		exec.setMessage("Listing goals");
+    		int count = 0;
+    		// Listed for all profiles of the accounts, including ones that are not in the list
+    		for ( Goal goal : ManagementCollections.getGoals(connection, accountIds, denied, exec) ) {
+    			if ( profileIds.contains(goal.getProfileId()) ) {
+    				List<DataCell> cells = new ArrayList<DataCell>();
+    				cells.add(new StringCell(def(goal.getProfileId())));
+    				cells.add(new StringCell(def(goal.getAccountId())));
+    				cells.add(new StringCell(def(goal.getWebPropertyId())));
+    				cells.add(new StringCell(def(goal.getId())));
+    				cells.add(new StringCell(def(goal.getName())));
+    				cells.add(new StringCell(def(goal.getType())));
+    				cells.add(goal.getValue() != null ? new DoubleCell(goal.getValue()) : DataType.getMissingCell());
+    				cells.add(createBooleanCell(goal.getActive()));
+    				goals.addRowToTable(new DefaultRow("Row" + count++, cells));
+    			}
+    		}
+    	}
+    	goals.close();
+    	
+    	BufferedDataContainer filterLinks = exec.createDataContainer(createFilterLinkSpec());
+    	if ( m_filterLinks.getBooleanValue() ) {
+    		exec.setMessage("Listing filter links");
+    		int count = 0;
+    		for ( ProfileFilterLink link : ManagementCollections.getProfileFilterLinks(connection, accountIds, denied, exec) ) {
+    			String profileId = link.getProfileRef() != null ? link.getProfileRef().getId() : null;
+    			if ( profileIds.contains(profileId) ) {
+    				List<DataCell> cells = new ArrayList<DataCell>();
+    				cells.add(new StringCell(profileId));
+    				cells.add(new StringCell(def(link.getId())));
+    				cells.add(link.getRank() != null ? new IntCell(link.getRank()) : DataType.getMissingCell());
+    				cells.add(new StringCell(link.getFilterRef() != null ? def(link.getFilterRef().getId()) : ""));
+    				cells.add(new StringCell(link.getFilterRef() != null ? def(link.getFilterRef().getName()) : ""));
+    				filterLinks.addRowToTable(new DefaultRow("Row" + count++, cells));
+    			}
+    		}
+    	}
+    	filterLinks.close();
+    	
+    	BufferedDataContainer customDimensions = exec.createDataContainer(createCustomDimensionSpec());
+    	if ( m_customDimensions.getBooleanValue() ) {
+    		exec.setMessage("Listing custom dimensions");
+    		int count = 0;
+    		// Defined per web property, repeated for each of its profiles
+    		for ( CustomDimension dimension : ManagementCollections.getCustomDimensions(connection, propertyAccounts, denied, exec) ) {
+    			List<String> profiles = propertyProfiles.get(dimension.getWebPropertyId());
+    			if ( profiles == null ) continue;
+    			for ( String profileId : profiles ) {
+    				List<DataCell> cells = new ArrayList<DataCell>();
+    				cells.add(new StringCell(profileId));
+    				cells.add(new StringCell(def(dimension.getAccountId())));
+    				cells.add(new StringCell(def(dimension.getWebPropertyId())));
+    				cells.add(new StringCell(def(dimension.getId())));
+    				cells.add(dimension.getIndex() != null ? new IntCell(dimension.getIndex()) : DataType.getMissingCell());
+    				cells.add(new StringCell(def(dimension.getName())));
+    				cells.add(new StringCell(def(dimension.getScope())));
+    				cells.add(createBooleanCell(dimension.getActive()));
+    				customDimensions.addRowToTable(new DefaultRow("Row" + count++, cells));
+    			}
+    		}
+    	}
+    	customDimensions.close();
+    	
+    	BufferedDataContainer customMetrics = exec.createDataContainer(createCustomMetricSpec());
+    	if ( m_customMetrics.getBooleanValue() ) {
+    		exec.setMessage("Listing custom metrics");
+    		int count = 0;
+    		for ( CustomMetric metric : ManagementCollections.getCustomMetrics(connection, propertyAccounts, denied, exec) ) {
+    			List<String> profiles = propertyProfiles.get(metric.getWebPropertyId());
+    			if ( profiles == null ) continue;
+    			for ( String profileId : profiles ) {
+    				List<DataCell> cells = new ArrayList<DataCell>();
+    				cells.add(new StringCell(profileId));
+    				cells.add(new StringCell(def(metric.getAccountId())));
+    				cells.add(new StringCell(def(metric.getWebPropertyId())));
+    				cells.add(new StringCell(def(metric.getId())));
+    				cells.add(metric.getIndex() != null ? new IntCell(metric.getIndex()) : DataType.getMissingCell());
+    				cells.add(new StringCell(def(metric.getName())));
+    				cells.add(new StringCell(def(metric.getScope())));
+    				cells.add(new StringCell(def(metric.getType())));
+    				cells.add(createBooleanCell(metric.getActive()));
+    				customMetrics.addRowToTable(new DefaultRow("Row" + count++, cells));
+    			}
+    		}
+    	}
+    	customMetrics.close();
+    	
+    	return new BufferedDataTable[]{goals.getTable(), filterLinks.getTable(), customDimensions.getTable(), 
+    			customMetrics.getTable()};
     }
     
-    private String def( String str  ) {
+    private static DataCell createBooleanCell( Boolean value ) {
+    	if ( value == null ) {
+    		return DataType.getMissingCell();
+    	}
+    	return value ? BooleanCell.TRUE : BooleanCell.FALSE;
+    }
+    
+    /**
+     * @param connection The Google API connection
+     * @param previous The profiles of the last execution by their ID or <code>null</code> if all profiles are read
+     * @param changes Receives the added, changed and removed profiles with the kind of change, only filled in 
+     *        incremental mode
+     * @param exec The monitor to check for cancellation
+     * @return The cells of all profiles
+     */
+    private List<List<DataCell>> listRows( GoogleApiConnection connection, Map<String, List<DataCell>> previous, 
+    		List<List<DataCell>> changes, ExecutionMonitor exec ) throws IOException, CanceledExecutionException {
+    	List<List<DataCell>> rows = new ArrayList<List<DataCell>>();
+    	if ( !isIncremental() ) {
+    		for ( Profile profile : listProfiles(connection, exec) ) {
+    			rows.add(createCells(profile));
+    		}
+    		return rows;
+    	}
+    	
+    	// Only tells when each profile was changed, the details are read for added and changed profiles
+    	List<Profile> versions = GoogleAnalyticsConnection.getAllProfileVersions(connection, exec);
+    	List<Profile> changed = new ArrayList<Profile>();
+    	for ( Profile version : versions ) {
+    		if ( previous == null || !isUnchanged(previous.get(version.getId()), version) ) {
+    			changed.add(version);
+    		}
+    	}
+    	List<Profile> fetched = previous == null || changed.size() > MAX_DETAIL_REQUESTS 
+    			? GoogleAnalyticsConnection.getAllProfiles(connection, exec) 
+    			: GoogleAnalyticsConnection.getProfileDetails(connection, changed, exec);
+    	Map<String, Profile> details = new HashMap<String, Profile>();
+    	for ( Profile profile : fetched ) {
+    		if ( profile != null ) {
+    			details.put(profile.getId(), profile);
+    		}
+    	}
+    	
+    	Set<String> listed = new HashSet<String>();
+    	for ( Profile version : versions ) {
+    		List<DataCell> old = previous != null ? previous.get(version.getId()) : null;
+    		if ( old != null && isUnchanged(old, version) ) {
+    			listed.add(version.getId());
+    			rows.add(old);
+    			continue;
+    		}
+    		Profile profile = details.get(version.getId());
+    		if ( profile == null ) {
+    			// Removed while the profiles were listed, reported as removed if it was listed before
+    			continue;
+    		}
+    		listed.add(version.getId());
+    		List<DataCell> cells = createCells(profile);
+    		rows.add(cells);
+    		changes.add(withChange(cells, old == null ? "Added" : "Changed"));
+    	}
+    	if ( previous != null ) {
+    		for ( Map.Entry<String, List<DataCell>> entry : previous.entrySet() ) {
+    			if ( !listed.contains(entry.getKey()) ) {
+    				changes.add(withChange(entry.getValue(), "Removed"));
+    			}
+    		}
+    	}
+    	return rows;
+    }
+    
+    private boolean isIncremental() {
+    	// Only the details tell when a profile was changed
+    	return m_incremental.getBooleanValue() && m_details.getBooleanValue();
+    }
+    
+    private static boolean isUnchanged( List<DataCell> cells, Profile version ) {
+    	if ( cells == null || version.getUpdated() == null ) {
+    		return false;
+    	}
+    	DataCell updated = cells.get(UPDATED_INDEX);
+    	// The cells do not keep the milliseconds
+    	return !updated.isMissing() 
+    			&& ((DateAndTimeValue)updated).getUTCTimeInMillis() / 1000 == version.getUpdated().getValue() / 1000;
+    }
+    
+    private static List<DataCell> withChange( List<DataCell> cells, String change ) {
+    	List<DataCell> row = new ArrayList<DataCell>(cells);
+    	row.add(new StringCell(change));
+    	return row;
+    }
+    
+    private static List<DataCell> createCells( Profile profile ) {
+    	List<DataCell> cells = new ArrayList<DataCell>();
+    	
+    	String accountId = profile.getAccountId();
+    	String propertyId = profile.getWebPropertyId();
+    	String internalPropertyId = profile.getInternalWebPropertyId();
+    	String profileId = profile.getId();
+    	String name = profile.getName();
+    	String siteUrl = profile.getWebsiteUrl();
+    	String timezone = profile.getTimezone();
+    	DateTime createdDate = profile.getCreated();
+    	DateTime updatedDate = profile.getUpdated();
+    	String currency = profile.getCurrency();
+    	Boolean eCommerceTracking = profile.getECommerceTracking();
+    	String excludedParams = profile.getExcludeQueryParameters();
+    	
+    	cells.add(new StringCell(def(accountId)));
+    	cells.add(new StringCell(def(propertyId)));
+    	cells.add(new StringCell(def(internalPropertyId)));
+    	cells.add(new StringCell(def(profileId)));
+    	cells.add(new StringCell(def(name)));
+    	cells.add(new StringCell(def(siteUrl)));
+    	cells.add(new StringCell(def(timezone)));
+    	// Not part of the account tree, missing if the details are not listed
+    	cells.add(createdDate != null ? new DateAndTimeCell(createdDate.getValue(), true, true, false) : DataType.getMissingCell());
+    	cells.add(updatedDate != null ? new DateAndTimeCell(updatedDate.getValue(), true, true, false) : DataType.getMissingCell());
+    	cells.add(new StringCell(def(currency)));
+    	cells.add(eCommerceTracking != null ? (eCommerceTracking ? BooleanCell.TRUE : BooleanCell.FALSE) : DataType.getMissingCell());
+    	cells.add(new StringCell(def(excludedParams)));
+    	
+    	return cells;
+    }
+    
+    private List<Profile> listProfiles( GoogleApiConnection connection, ExecutionMonitor exec ) throws IOException, CanceledExecutionException {
+    	if ( m_details.getBooleanValue() ) {
+    		return GoogleAnalyticsConnection.getAllProfiles(connection, exec);
+    	}
+    	return GoogleAnalyticsConnection.getProfileSummaries(connection);
+    }
+    
+    private static String def( String str  ) {
     	if ( str == null ) return "";
     	return str;
     }
@@ -120,13 +480,29 @@ public class ProfileListNodeModel extends NodeModel {
      */
     @Override
     protected void reset() {
-        // TODO: generated method stub
+        // The inventory is kept, the next execution in incremental mode compares against it
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDispose() {
+    	disposeInventory();
+    }
+    
+    private void disposeInventory() {
+    	if ( m_inventory != null ) {
+    		m_inventory.dispose();
+    		m_inventory = null;
+    	}
     }
 
     @Override
     protected PortObjectSpec[] configure(PortObjectSpec[] inSpecs)
     		throws InvalidSettingsException {
-    	return new PortObjectSpec[] { createSpec() }; 
+    	return new PortObjectSpec[] { createSpec(), createChangeSpec(), createGoalSpec(), createFilterLinkSpec(), 
+    			createCustomDimensionSpec(), createCustomMetricSpec() }; 
     }
 
     /**
@@ -134,7 +510,12 @@ public class ProfileListNodeModel extends NodeModel {
      */
     @Override
     protected void saveSettingsTo(final NodeSettingsWO settings) {
-         // TODO: generated method stub
+         m_details.saveSettingsTo(settings);
+         m_incremental.saveSettingsTo(settings);
+         m_goals.saveSettingsTo(settings);
+         m_filterLinks.saveSettingsTo(settings);
+         m_customDimensions.saveSettingsTo(settings);
+         m_customMetrics.saveSettingsTo(settings);
     }
 
     /**
@@ -143,7 +524,19 @@ public class ProfileListNodeModel extends NodeModel {
     @Override
     protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
             throws InvalidSettingsException {
-        // TODO: generated method stub
+        // Added later, older workflows list the profile details and nothing else
+        if ( settings.containsKey(CFG_DETAILS) ) {
+        	m_details.loadSettingsFrom(settings);
+        }
+        if ( settings.containsKey(CFG_INCREMENTAL) ) {
+        	m_incremental.loadSettingsFrom(settings);
+        }
+        if ( settings.containsKey(CFG_GOALS) ) {
+        	m_goals.loadSettingsFrom(settings);
+        	m_filterLinks.loadSettingsFrom(settings);
+        	m_customDimensions.loadSettingsFrom(settings);
+        	m_customMetrics.loadSettingsFrom(settings);
+        }
     }
 
     /**
@@ -152,7 +545,18 @@ public class ProfileListNodeModel extends NodeModel {
     @Override
     protected void validateSettings(final NodeSettingsRO settings)
             throws InvalidSettingsException {
-        // TODO: generated method stub
+        if ( settings.containsKey(CFG_DETAILS) ) {
+        	m_details.validateSettings(settings);
+        }
+        if ( settings.containsKey(CFG_INCREMENTAL) ) {
+        	m_incremental.validateSettings(settings);
+        }
+        if ( settings.containsKey(CFG_GOALS) ) {
+        	m_goals.validateSettings(settings);
+        	m_filterLinks.validateSettings(settings);
+        	m_customDimensions.validateSettings(settings);
+        	m_customMetrics.validateSettings(settings);
+        }
     }
     
     /**
@@ -162,7 +566,8 @@ public class ProfileListNodeModel extends NodeModel {
     protected void loadInternals(final File internDir,
             final ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
-        // TODO: generated method stub
+        disposeInventory();
+        m_inventory = ProfileInventory.load(internDir);
     }
     
     /**
@@ -172,21 +577,23 @@ public class ProfileListNodeModel extends NodeModel {
     protected void saveInternals(final File internDir,
             final ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
-        // TODO: generated method stub
+        if ( m_inventory != null ) {
+        	m_inventory.save(internDir);
+        }
     }
 
-    private DataTableSpec createSpec() {
+    private static DataTableSpec createSpec() {
     	
     	List<DataColumnSpec> colSpecs = new ArrayList<DataColumnSpec>();
-    	colSpecs.add(new DataColumnSpecCreator("Account ID", StringCell.TYPE).createSpec());
-    	colSpecs.add(new DataColumnSpecCreator("WebProperty ID", StringCell.TYPE).createSpec());
+    	colSpecs.add(new DataColumnSpecCreator(ACCOUNT_ID_COLUMN, StringCell.TYPE).createSpec());
+    	colSpecs.add(new DataColumnSpecCreator(PROPERTY_ID_COLUMN, StringCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Internal WebProperty ID", StringCell.TYPE).createSpec());
-    	colSpecs.add(new DataColumnSpecCreator("Profile ID", StringCell.TYPE).createSpec());
+    	colSpecs.add(new DataColumnSpecCreator(PROFILE_ID_COLUMN, StringCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Name", StringCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Site Url", StringCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Timezone", StringCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Created", DateAndTimeCell.TYPE).createSpec());
-    	colSpecs.add(new DataColumnSpecCreator("Updated", DateAndTimeCell.TYPE).createSpec());
+    	colSpecs.add(new DataColumnSpecCreator(UPDATED_COLUMN, DateAndTimeCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Currency", StringCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("eCommerce Tracking ID", BooleanCell.TYPE).createSpec());
     	colSpecs.add(new DataColumnSpecCreator("Excluded Params", StringCell.TYPE).createSpec());
@@ -195,6 +602,64 @@ public class ProfileListNodeModel extends NodeModel {
     	
     }
     
+    /**
+     * @return The columns of the profile list followed by the kind of change: Added, Changed or Removed
+     */
+    private static DataTableSpec createChangeSpec() {
+    	List<DataColumnSpec> colSpecs = new ArrayList<DataColumnSpec>();
+    	for ( DataColumnSpec colSpec : createSpec() ) {
+    		colSpecs.add(colSpec);
+    	}
+    	colSpecs.add(new DataColumnSpecCreator("Change", StringCell.TYPE).createSpec());
+    	return new DataTableSpec(colSpecs.toArray(new DataColumnSpec[colSpecs.size()]));
+    }
+    
+    private static DataTableSpec createGoalSpec() {
+    	return new DataTableSpec(
+    			new DataColumnSpecCreator(PROFILE_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator(ACCOUNT_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator(PROPERTY_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Goal ID", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Name", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Type", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Value", DoubleCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Active", BooleanCell.TYPE).createSpec());
+    }
+    
+    private static DataTableSpec createFilterLinkSpec() {
+    	return new DataTableSpec(
+    			new DataColumnSpecCreator(PROFILE_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Link ID", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Rank", IntCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Filter ID", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Filter Name", StringCell.TYPE).createSpec());
+    }
+    
+    private static DataTableSpec createCustomDimensionSpec() {
+    	return new DataTableSpec(
+    			new DataColumnSpecCreator(PROFILE_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator(ACCOUNT_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator(PROPERTY_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Dimension ID", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Index", IntCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Name", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Scope", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Active", BooleanCell.TYPE).createSpec());
+    }
+    
+    private static DataTableSpec createCustomMetricSpec() {
+    	return new DataTableSpec(
+    			new DataColumnSpecCreator(PROFILE_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator(ACCOUNT_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator(PROPERTY_ID_COLUMN, StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Metric ID", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Index", IntCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Name", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Scope", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Type", StringCell.TYPE).createSpec(),
+    			new DataColumnSpecCreator("Active", BooleanCell.TYPE).createSpec());
+    }
+    
     
 }
 
@@ -0,0 +1,96 @@
+package com.pg.google.api.connector.data;
+
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.http.client.methods.AbortableHttpRequest;
+
+/**
+ * Groups the HTTP requests a thread sends while the scope is entered, so another thread can abort all of them at once,
+ * e.g. when the node that sent them is canceled. Aborting closes the connection of a request whether it is still
+ * waiting for its response or reading it, the sending thread then fails with an {@link java.io.IOException} right away.
+ *
+ * Only the pooled transport of {@link HttpTransports} can abort requests, requests of other transports run until they
+ * are finished or time out.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public final class AbortScope {
+
+    private static final ThreadLocal<AbortScope> CURRENT = new ThreadLocal<AbortScope>();
+
+    private final Set<AbortableHttpRequest> m_requests = new HashSet<AbortableHttpRequest>();
+
+    private boolean m_aborted = false;
+
+    /**
+     * Makes this the scope of the requests the current thread sends.
+     *
+     * @return The scope entered before, to be passed to {@link #restore(AbortScope)} afterwards
+     */
+    public AbortScope enter() {
+        AbortScope previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * @param previous The scope returned by {@link #enter()}
+     */
+    public static void restore(final AbortScope previous) {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * @return The scope entered by the current thread or <code>null</code>
+     */
+    static AbortScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return true if the requests of this scope were aborted
+     */
+    public synchronized boolean isAborted() {
+        return m_aborted;
+    }
+
+    /**
+     * Aborts all running requests of this scope, requests sent afterwards fail before they are sent.
+     */
+    public void abort() {
+        AbortableHttpRequest[] requests;
+        synchronized (this) {
+            m_aborted = true;
+            requests = m_requests.toArray(new AbortableHttpRequest[m_requests.size()]);
+            m_requests.clear();
+        }
+        for (AbortableHttpRequest request : requests) {
+            request.abort();
+        }
+    }
+
+    /**
+     * @param request A request about to be sent
+     * @throws InterruptedIOException If the scope was aborted already
+     */
+    synchronized void register(final AbortableHttpRequest request) throws InterruptedIOException {
+        if (m_aborted) {
+            throw new InterruptedIOException("Request was aborted");
+        }
+        m_requests.add(request);
+    }
+
+    /**
+     * @param request A request whose connection has been released
+     */
+    synchronized void unregister(final AbortableHttpRequest request) {
+        m_requests.remove(request);
+    }
+
+}
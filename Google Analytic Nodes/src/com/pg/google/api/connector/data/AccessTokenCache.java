@@ -0,0 +1,219 @@
+package com.pg.google.api.connector.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+/**
+ * Shares the OAuth access tokens of all credentials in the JVM that use the same client ID and refresh token, so
+ * a workflow with many Google Analytics nodes exchanges the refresh token once instead of once per node.
+ *
+ * Only one thread refreshes a token at a time, other threads needing the same token wait for its result. Tokens that
+ * have been asked for within the last {@link #KEEP_WARM_MINUTES} minutes are refreshed in the background
+ * {@link #REFRESH_AHEAD_SECONDS} seconds before they expire, so credentials, which ask for a new token shortly before
+ * theirs expires, get it without waiting for the token endpoint. Both can be changed with the system properties
+ * <code>pg.ganalytics.token.refreshAheadSeconds</code> and <code>pg.ganalytics.token.keepWarmMinutes</code>.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public final class AccessTokenCache {
+
+    /**
+     * Time before the expiry of a token at which it is refreshed in the background.
+     */
+    public static final long REFRESH_AHEAD_SECONDS = Long.getLong("pg.ganalytics.token.refreshAheadSeconds", 300);
+
+    /**
+     * Time since a token was last asked for after which it is not refreshed in the background anymore.
+     */
+    public static final long KEEP_WARM_MINUTES = Long.getLong("pg.ganalytics.token.keepWarmMinutes", 120);
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(AccessTokenCache.class);
+
+    // Credentials refresh their token once it expires within a minute, a cached token has to be valid for longer
+    private static final long MIN_VALIDITY_MILLIS = TimeUnit.SECONDS.toMillis(90);
+
+    // Lifetime assumed if the token endpoint does not tell it
+    private static final long DEFAULT_LIFETIME_SECONDS = 3600;
+
+    private final ConcurrentMap<String, Entry> m_entries = new ConcurrentHashMap<String, Entry>();
+
+    private final ScheduledExecutorService m_refresher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "GA-Token-Refresher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private static class Holder {
+        private static final AccessTokenCache INSTANCE = new AccessTokenCache();
+    }
+
+    private AccessTokenCache() {
+        // shared instance only
+    }
+
+    /**
+     * @return The cache shared by all connections in the JVM
+     */
+    public static AccessTokenCache getShared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param clientId The OAuth client ID
+     * @param clientSecret The OAuth client secret
+     * @param refreshToken The refresh token of the user
+     * @param staleToken The access token the caller holds, it is refreshed even if it has not expired yet because it
+     *            was rejected, or <code>null</code>
+     * @return A token valid for at least another minute
+     * @throws IOException If the token could not be refreshed
+     */
+    public TokenResponse getToken(final String clientId, final String clientSecret, final String refreshToken,
+            final String staleToken) throws IOException {
+        String key = clientId + "\n" + refreshToken;
+        Entry entry = m_entries.get(key);
+        if (entry == null) {
+            Entry created = new Entry(clientId, refreshToken);
+            entry = m_entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        synchronized (entry) {
+            entry.m_clientSecret = clientSecret;
+            entry.m_lastUsed = System.currentTimeMillis();
+            if (staleToken != null && staleToken.equals(entry.m_accessToken)) {
+                // Rejected before it expired, e.g. because it was revoked
+                entry.m_accessToken = null;
+            }
+            while (true) {
+                if (entry.isValid()) {
+                    return entry.toResponse();
+                }
+                if (!entry.m_refreshing) {
+                    break;
+                }
+                try {
+                    entry.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the access token");
+                }
+            }
+            entry.m_refreshing = true;
+        }
+        refresh(entry);
+        synchronized (entry) {
+            return entry.toResponse();
+        }
+    }
+
+    /**
+     * Exchanges the refresh token of the entry, which has to be marked as refreshing by the caller.
+     */
+    private void refresh(final Entry entry) throws IOException {
+        TokenResponse response = null;
+        try {
+            String clientSecret;
+            synchronized (entry) {
+                clientSecret = entry.m_clientSecret;
+            }
+            response = new GoogleRefreshTokenRequest(HttpTransports.getShared(), JacksonFactory.getDefaultInstance(),
+                    entry.m_refreshToken, entry.m_clientId, clientSecret).execute();
+        } finally {
+            synchronized (entry) {
+                if (response != null) {
+                    Long lifetime = response.getExpiresInSeconds();
+                    entry.m_accessToken = response.getAccessToken();
+                    entry.m_expiresAt = System.currentTimeMillis()
+                        + TimeUnit.SECONDS.toMillis(lifetime != null ? lifetime : DEFAULT_LIFETIME_SECONDS);
+                }
+                entry.m_refreshing = false;
+                entry.notifyAll();
+            }
+        }
+        LOGGER.debug("Refreshed access token of client " + entry.m_clientId);
+        scheduleRefresh(entry);
+    }
+
+    private void scheduleRefresh(final Entry entry) {
+        final long expiresAt;
+        synchronized (entry) {
+            expiresAt = entry.m_expiresAt;
+        }
+        long delay = expiresAt - TimeUnit.SECONDS.toMillis(REFRESH_AHEAD_SECONDS) - System.currentTimeMillis();
+        if (delay <= 0) {
+            // Tokens living shorter than the lead time are only refreshed on demand
+            return;
+        }
+        m_refresher.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (entry) {
+                    long idle = System.currentTimeMillis() - entry.m_lastUsed;
+                    // Skipped if the token has been replaced since, its refresh is scheduled already
+                    if (entry.m_refreshing || entry.m_expiresAt != expiresAt
+                            || idle > TimeUnit.MINUTES.toMillis(KEEP_WARM_MINUTES)) {
+                        return;
+                    }
+                    entry.m_refreshing = true;
+                }
+                try {
+                    refresh(entry);
+                } catch (IOException e) {
+                    // The next request refreshes the token itself once it expires
+                    LOGGER.warn("Unable to refresh the access token of client " + entry.m_clientId + " ahead of time: "
+                        + e.getMessage());
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Entry {
+
+        private final String m_clientId;
+
+        private final String m_refreshToken;
+
+        private String m_clientSecret;
+
+        private String m_accessToken;
+
+        private long m_expiresAt;
+
+        private long m_lastUsed;
+
+        private boolean m_refreshing = false;
+
+        Entry(final String clientId, final String refreshToken) {
+            m_clientId = clientId;
+            m_refreshToken = refreshToken;
+        }
+
+        boolean isValid() {
+            return m_accessToken != null && m_expiresAt - System.currentTimeMillis() > MIN_VALIDITY_MILLIS;
+        }
+
+        TokenResponse toResponse() {
+            long expiresIn = TimeUnit.MILLISECONDS.toSeconds(m_expiresAt - System.currentTimeMillis());
+            return new TokenResponse().setAccessToken(m_accessToken).setTokenType("Bearer")
+                .setExpiresInSeconds(expiresIn);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.pg.google.api.connector.data;
+
+import java.io.IOException;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+
+/**
+ * Credential that takes its access tokens from the {@link AccessTokenCache} instead of exchanging the refresh token
+ * itself.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class CachedTokenCredential extends GoogleCredential {
+
+    private final String m_clientId;
+
+    private final String m_clientSecret;
+
+    /**
+     * @param builder The builder with transport, JSON factory and client secrets
+     * @param clientId The OAuth client ID
+     * @param clientSecret The OAuth client secret
+     */
+    CachedTokenCredential(final GoogleCredential.Builder builder, final String clientId, final String clientSecret) {
+        super(builder);
+        m_clientId = clientId;
+        m_clientSecret = clientSecret;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected TokenResponse executeRefreshToken() throws IOException {
+        if (getRefreshToken() == null) {
+            return null;
+        }
+        // Called when the token expires soon or was rejected, a rejected token must not be handed out again
+        return AccessTokenCache.getShared().getToken(m_clientId, m_clientSecret, getRefreshToken(), getAccessToken());
+    }
+
+}
@@ -15,14 +15,13 @@ import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeToken
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
 import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.pg.google.api.connector.node.GoogleApiConnectorNodeConfiguration;
 
 public class GoogleApiConnection {
 
-    private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+    private static final HttpTransport HTTP_TRANSPORT = HttpTransports.getShared();
 
     private static final JsonFactory JSON_FACTORY = new JacksonFactory();
     
@@ -53,10 +52,11 @@ public class GoogleApiConnection {
     private void createFromOAuth(final String clientId, final String clientSecret, final String refreshToken) 
     		throws GeneralSecurityException, IOException {
 
+    	// Access tokens are shared with all connections of the same client and user
     	m_credential =
-    			new GoogleCredential.Builder().setTransport(HTTP_TRANSPORT).setJsonFactory(JSON_FACTORY)
-						.setClientSecrets(clientId, clientSecret).build()
-						.setRefreshToken(refreshToken);
+    			new CachedTokenCredential(new GoogleCredential.Builder().setTransport(HTTP_TRANSPORT).setJsonFactory(JSON_FACTORY)
+						.setClientSecrets(clientId, clientSecret), clientId, clientSecret);
+    	m_credential.setRefreshToken(refreshToken);
     }
     
     /**
@@ -76,7 +76,7 @@ public class GoogleApiConnection {
     }
 
     /**
-     * @return The httpTransport instance
+     * @return The httpTransport instance shared by all connections, see {@link HttpTransports}
      */
     public HttpTransport getHttpTransport() {
         return HTTP_TRANSPORT;
@@ -89,6 +89,20 @@ public class GoogleApiConnection {
         return JSON_FACTORY;
     }
 
+    /**
+     * @return The OAuth client ID
+     */
+    public String getClientId() {
+        return m_clientId;
+    }
+
+    /**
+     * @return The refresh token identifying the user that authorized the client
+     */
+    public String getRefreshToken() {
+        return m_refreshToken;
+    }
+
     /**
      * @return The Google API credential
      */
@@ -151,8 +165,8 @@ public class GoogleApiConnection {
     public static String Get_Refresh_Token(String clientId, String clientSecret, String accessToken) throws IOException {
     	// Convert accessToken to refreshToken
 		GoogleTokenResponse response = new GoogleAuthorizationCodeTokenRequest(
-				new NetHttpTransport(), 
-				new JacksonFactory(),
+				HTTP_TRANSPORT, 
+				JSON_FACTORY,
 				clientId, 
 				clientSecret, 
 				accessToken, 
@@ -0,0 +1,149 @@
+package com.pg.google.api.connector.data;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.params.HttpParams;
+import org.knime.core.node.NodeLogger;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+/**
+ * Creates the HTTP transport shared by all Google API connections in the JVM, so parallel and consecutive requests
+ * reuse open connections and TLS sessions instead of connecting again.
+ *
+ * The transport is chosen with the system property <code>pg.ganalytics.http.transport</code>:
+ * <ul>
+ * <li><code>pooled</code> (default): a bounded pool of keep-alive connections. At most
+ * <code>pg.ganalytics.http.maxConnectionsPerRoute</code> (20) connections are opened to one host and
+ * <code>pg.ganalytics.http.maxConnections</code> (100) in total, further requests wait for a free connection.
+ * Connections idle for <code>pg.ganalytics.http.idleSeconds</code> (60) are closed. Requests can be aborted through
+ * an {@link AbortScope}.</li>
+ * <li><code>jdk</code>: the <code>HttpURLConnection</code> of the JDK, which keeps up to
+ * <code>http.maxConnections</code> idle connections per host, but does not bound the open ones.</li>
+ * </ul>
+ * Both use one TLS context, so handshakes with a host that was connected to before resume the TLS session.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+public final class HttpTransports {
+
+    /**
+     * The available transports.
+     */
+    public enum Kind {
+        /** Bounded pool of keep-alive connections. */
+        POOLED,
+        /** HttpURLConnection of the JDK. */
+        JDK
+    }
+
+    private static final NodeLogger LOGGER = NodeLogger.getLogger(HttpTransports.class);
+
+    private static final int MAX_CONNECTIONS_PER_ROUTE =
+            Integer.getInteger("pg.ganalytics.http.maxConnectionsPerRoute", 20);
+
+    private static final int MAX_CONNECTIONS = Integer.getInteger("pg.ganalytics.http.maxConnections", 100);
+
+    private static final long IDLE_SECONDS = Long.getLong("pg.ganalytics.http.idleSeconds", 60);
+
+    private static class Holder {
+        private static final HttpTransport SHARED = create(getConfiguredKind());
+    }
+
+    private HttpTransports() {
+        // utility class
+    }
+
+    /**
+     * @return The transport shared by all connections in the JVM
+     */
+    public static HttpTransport getShared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * @return The transport selected with the system property <code>pg.ganalytics.http.transport</code>
+     */
+    public static Kind getConfiguredKind() {
+        String kind = System.getProperty("pg.ganalytics.http.transport", Kind.POOLED.name());
+        try {
+            return Kind.valueOf(kind.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unknown HTTP transport \"" + kind + "\", using " + Kind.POOLED.name().toLowerCase());
+            return Kind.POOLED;
+        }
+    }
+
+    /**
+     * @param kind The kind of transport
+     * @return A new transport, shut down only when the JVM exits
+     */
+    public static HttpTransport create(final Kind kind) {
+        SSLContext tls = createTlsContext();
+        if (kind == Kind.JDK) {
+            NetHttpTransport.Builder builder = new NetHttpTransport.Builder();
+            if (tls != null) {
+                builder.setSslSocketFactory(tls.getSocketFactory());
+            }
+            return builder.build();
+        }
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder();
+        if (tls != null) {
+            builder.setSocketFactory(new SSLSocketFactory(tls));
+        }
+        HttpParams params = builder.getHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, Math.max(1, MAX_CONNECTIONS));
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+            new ConnPerRouteBean(Math.max(1, Math.min(MAX_CONNECTIONS_PER_ROUTE, MAX_CONNECTIONS))));
+        PooledHttpTransport transport = new PooledHttpTransport(builder.build().getHttpClient());
+        evictIdleConnections(transport.getHttpClient().getConnectionManager());
+        LOGGER.debug("Using a pool of " + MAX_CONNECTIONS_PER_ROUTE + " connections per host for Google APIs");
+        return transport;
+    }
+
+    /**
+     * @return A TLS context with the default trust store or <code>null</code> to use the default socket factory
+     */
+    private static SSLContext createTlsContext() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            LOGGER.warn("Unable to create a TLS context, using the default one: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void evictIdleConnections(final ClientConnectionManager manager) {
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "GA-Idle-Connection-Evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, IDLE_SECONDS / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                manager.closeExpiredConnections();
+                manager.closeIdleConnections(IDLE_SECONDS, TimeUnit.SECONDS);
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+}
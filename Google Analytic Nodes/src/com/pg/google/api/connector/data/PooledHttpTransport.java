@@ -0,0 +1,327 @@
+package com.pg.google.api.connector.data;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+/**
+ * Transport over a pooled Apache HttpClient, like the one of google-http-client, whose requests can be aborted through
+ * the {@link AbortScope} of the sending thread.
+ *
+ * @author Procter & Gamble, eBusiness
+ */
+final class PooledHttpTransport extends HttpTransport {
+
+    private final HttpClient m_httpClient;
+
+    /**
+     * @param httpClient The client, its connection manager has to be thread-safe
+     */
+    PooledHttpTransport(final HttpClient httpClient) {
+        m_httpClient = httpClient;
+    }
+
+    /**
+     * @return The underlying client
+     */
+    HttpClient getHttpClient() {
+        return m_httpClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supportsMethod(final String method) {
+        return "DELETE".equals(method) || "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)
+            || "POST".equals(method) || "PUT".equals(method) || "TRACE".equals(method);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected LowLevelHttpRequest buildRequest(final String method, final String url) {
+        HttpRequestBase request;
+        if ("DELETE".equals(method)) {
+            request = new HttpDelete(url);
+        } else if ("GET".equals(method)) {
+            request = new HttpGet(url);
+        } else if ("HEAD".equals(method)) {
+            request = new HttpHead(url);
+        } else if ("OPTIONS".equals(method)) {
+            request = new HttpOptions(url);
+        } else if ("POST".equals(method)) {
+            request = new HttpPost(url);
+        } else if ("PUT".equals(method)) {
+            request = new HttpPut(url);
+        } else if ("TRACE".equals(method)) {
+            request = new HttpTrace(url);
+        } else {
+            throw new IllegalArgumentException("Unsupported HTTP method " + method);
+        }
+        return new Request(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        m_httpClient.getConnectionManager().shutdown();
+    }
+
+    private class Request extends LowLevelHttpRequest {
+
+        private final HttpRequestBase m_request;
+
+        Request(final HttpRequestBase request) {
+            m_request = request;
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            m_request.addHeader(name, value);
+        }
+
+        @Override
+        public void setTimeout(final int connectTimeout, final int readTimeout) {
+            HttpParams params = m_request.getParams();
+            ConnManagerParams.setTimeout(params, connectTimeout);
+            HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+            HttpConnectionParams.setSoTimeout(params, readTimeout);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            StreamingContent content = getStreamingContent();
+            if (content != null) {
+                if (!(m_request instanceof HttpEntityEnclosingRequest)) {
+                    throw new IllegalArgumentException(m_request.getMethod() + " requests may not have content");
+                }
+                Entity entity = new Entity(getContentLength(), content);
+                entity.setContentEncoding(getContentEncoding());
+                entity.setContentType(getContentType());
+                ((HttpEntityEnclosingRequest)m_request).setEntity(entity);
+            }
+            AbortScope scope = AbortScope.current();
+            if (scope != null) {
+                scope.register(m_request);
+            }
+            try {
+                return new Response(m_request, m_httpClient.execute(m_request), scope);
+            } catch (IOException | RuntimeException e) {
+                if (scope != null) {
+                    scope.unregister(m_request);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static class Response extends LowLevelHttpResponse {
+
+        private final HttpRequestBase m_request;
+
+        private final HttpResponse m_response;
+
+        private final Header[] m_headers;
+
+        private final AbortScope m_scope;
+
+        private ConsumptionTracker m_content;
+
+        Response(final HttpRequestBase request, final HttpResponse response, final AbortScope scope) {
+            m_request = request;
+            m_response = response;
+            m_headers = response.getAllHeaders();
+            m_scope = scope;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            HttpEntity entity = m_response.getEntity();
+            if (entity == null) {
+                return null;
+            }
+            m_content = new ConsumptionTracker(entity.getContent());
+            return m_content;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            HttpEntity entity = m_response.getEntity();
+            return entity != null ? getValue(entity.getContentEncoding()) : null;
+        }
+
+        @Override
+        public long getContentLength() {
+            HttpEntity entity = m_response.getEntity();
+            return entity != null ? entity.getContentLength() : -1;
+        }
+
+        @Override
+        public String getContentType() {
+            HttpEntity entity = m_response.getEntity();
+            return entity != null ? getValue(entity.getContentType()) : null;
+        }
+
+        @Override
+        public String getStatusLine() {
+            StatusLine statusLine = m_response.getStatusLine();
+            return statusLine != null ? statusLine.toString() : null;
+        }
+
+        @Override
+        public int getStatusCode() {
+            StatusLine statusLine = m_response.getStatusLine();
+            return statusLine != null ? statusLine.getStatusCode() : 0;
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            StatusLine statusLine = m_response.getStatusLine();
+            return statusLine != null ? statusLine.getReasonPhrase() : null;
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return m_headers.length;
+        }
+
+        @Override
+        public String getHeaderName(final int index) {
+            return m_headers[index].getName();
+        }
+
+        @Override
+        public String getHeaderValue(final int index) {
+            return m_headers[index].getValue();
+        }
+
+        @Override
+        public void disconnect() {
+            if (m_scope != null) {
+                m_scope.unregister(m_request);
+            }
+            HttpEntity entity = m_response.getEntity();
+            boolean consumed = entity == null || entity.getContentLength() == 0
+                || (m_content != null && m_content.m_eof);
+            if (!consumed) {
+                // Reading the rest could take as long as the request, the connection is closed instead
+                m_request.abort();
+                return;
+            }
+            try {
+                // Returns the connection to the pool, e.g. after a 304 or a body that has been read completely
+                if (entity != null) {
+                    entity.consumeContent();
+                }
+            } catch (IOException e) {
+                m_request.abort();
+            }
+        }
+
+        private static String getValue(final Header header) {
+            return header != null ? header.getValue() : null;
+        }
+    }
+
+    /**
+     * Remembers whether the content of a response has been read up to its end.
+     */
+    private static class ConsumptionTracker extends FilterInputStream {
+
+        private volatile boolean m_eof = false;
+
+        ConsumptionTracker(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                m_eof = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                m_eof = true;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Streams the content of a request.
+     */
+    private static class Entity extends AbstractHttpEntity {
+
+        private final long m_length;
+
+        private final StreamingContent m_content;
+
+        Entity(final long length, final StreamingContent content) {
+            m_length = length;
+            m_content = content;
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getContentLength() {
+            return m_length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            if (m_length != 0) {
+                m_content.writeTo(out);
+            }
+        }
+    }
+
+}